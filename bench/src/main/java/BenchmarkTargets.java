@@ -0,0 +1,147 @@
+import java.util.function.Supplier;
+
+// jmh won't generate benchmarks in the default package, and java can't import from it,
+// so the benchmarks in bench/ reach the generator through these factories by reflection
+// each one does its setup up front and returns the measured work as a plain Supplier
+public final class BenchmarkTargets {
+  private static final int POINTS = 1024;
+
+  private BenchmarkTargets() {
+  }
+
+  // a spread of points over the default view, cycled through so results can't be cached
+  private static Complex[] points() {
+    Complex[] points = new Complex[POINTS];
+    for (int i = 0; i < POINTS; i++) {
+      double t = (double) i / POINTS;
+      points[i] = new Complex(-2 + 4 * t, 2 - 4 * ((t * 37) % 1));
+    }
+    return points;
+  }
+
+  private static Supplier<Object> cycle(java.util.function.Function<Complex, Object> body) {
+    Complex[] points = points();
+    int[] i = { 0 };
+    return () -> body.apply(points[i[0]++ & (POINTS - 1)]);
+  }
+
+  public static Supplier<Object> complex(String op) {
+    Complex other = new Complex(0.75, -1.25);
+    switch (op) {
+      case "add":
+        return cycle(z -> z.add(other));
+      case "multiply":
+        return cycle(z -> z.multiply(other));
+      case "divide":
+        return cycle(z -> z.divide(other));
+      case "powInt":
+        return cycle(z -> z.pow(8));
+      case "powComplex":
+        return cycle(z -> z.pow(other));
+      case "ln":
+        return cycle(z -> z.ln());
+      default:
+        throw new IllegalArgumentException("Unknown op " + op);
+    }
+  }
+
+  public static Supplier<Object> parse(String eq) {
+    return () -> Equation.parse(eq);
+  }
+
+  public static Supplier<Object> simplify(String eq) {
+    Equation parsed = Equation.parse(eq);
+    return parsed::simplify;
+  }
+
+  public static Supplier<Object> derivative(String eq) {
+    Equation simplified = Equation.parse(eq).simplify();
+    return simplified::derivative;
+  }
+
+  public static Supplier<Object> apply(String eq) {
+    Equation simplified = Equation.parse(eq).simplify();
+    return cycle(simplified::apply);
+  }
+
+  // mode is one of flat (compile(false)), compiled, dual, or bytecode (BytecodeCompiler, f and f')
+  public static Supplier<Object> compiled(String eq, String mode) {
+    Equation simplified = Equation.parse(eq).simplify();
+    if (mode.equals("bytecode")) {
+      DualFunction generated = BytecodeCompiler.of(simplified);
+      if (generated == null) {
+        // of() returns null when it can't generate a class, like one past BytecodeCompiler.HUGE_METHOD
+        throw new IllegalStateException("BytecodeCompiler can't generate a class for " + eq
+            + ", it is too big for the jit or has nodes only compile() evaluates");
+      }
+      double[] out = new double[4];
+      return cycle(z -> {
+        generated.evalDual(z.real, z.imag, out);
+        return out[2];
+      });
+    }
+    CompiledEquation f = simplified.compile(!mode.equals("flat"));
+    if (mode.equals("dual")) {
+      return cycle(z -> {
+        f.evalDual(z.real, z.imag);
+        return f.dreal;
+      });
+    }
+    return cycle(z -> {
+      f.eval(z.real, z.imag);
+      return f.real;
+    });
+  }
+
+  public static Supplier<Object> newton(String eq, String derivative) {
+    Equation simplified = Equation.parse(eq).simplify();
+    Newton newton = Newton.of(simplified, Newton.Derivative.valueOf(derivative), 512, 1024, -2, 2, -2, 2);
+    return cycle(newton::newton);
+  }
+
+  // one full row of 512 pixels per call, kernel is scalar or vector
+  public static Supplier<Object> row(String eq, String kernel) {
+    Equation simplified = Equation.parse(eq).simplify();
+    int width = 512;
+    Newton newton = Newton.of(simplified, Newton.Derivative.DUAL, width, 1024, -2, 2, -2, 2);
+    if (kernel.equals("vector") && !newton.useVector(simplified)) {
+      throw new IllegalStateException("No vector kernel for " + eq + ", is jdk.incubator.vector added?");
+    }
+    double[] re = new double[width], im = new double[width];
+    int[] iter = new int[width];
+    int[] row = { 0 };
+    return () -> {
+      double y = 2 - 4d * (row[0]++ % width) / width;
+      newton.row(y, 0, width, re, im, iter);
+      return iter;
+    };
+  }
+
+  // one full row of 512 pixels per call, iterated with the named Method
+  public static Supplier<Object> method(String eq, String method) {
+    Equation simplified = Equation.parse(eq).simplify();
+    int width = 512;
+    Newton newton = Newton.of(simplified, Newton.Derivative.DUAL, width, 1024, -2, 2, -2, 2);
+    newton.useMethod(Method.of(method), simplified);
+    double[] re = new double[width], im = new double[width];
+    int[] iter = new int[width];
+    int[] row = { 0 };
+    return () -> {
+      double y = 2 - 4d * (row[0]++ % width) / width;
+      newton.row(y, 0, width, re, im, iter);
+      return iter;
+    };
+  }
+
+  public static Supplier<Object> render(String eq, String size, String threads) {
+    Equation simplified = Equation.parse(eq).simplify();
+    int n = Integer.parseInt(size);
+    double increment = 4d / n;
+    return () -> {
+      Newton newton = Newton.of(simplified, Newton.Derivative.DUAL, n, 1024, -2, 2, -2, 2);
+      Renderer renderer = new Renderer(newton, n, n, -2, -2, increment, increment, Integer.parseInt(threads));
+      renderer.render(null);
+      return renderer.image(100d, 1024d);
+    };
+  }
+}
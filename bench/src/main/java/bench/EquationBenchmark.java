@@ -0,0 +1,82 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// the equations behind the sample images in out/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EquationBenchmark {
+  @Param({ "z^2-1", "z^3-1", "z^8+15z^4-16", "z^3-2z+2" })
+  public String eq;
+
+  private Supplier<Object> parse, simplify, derivative, apply, flat, compiled, dual, bytecode;
+
+  @Setup
+  public void setup() {
+    parse = Targets.get("parse", eq);
+    simplify = Targets.get("simplify", eq);
+    derivative = Targets.get("derivative", eq);
+    apply = Targets.get("apply", eq);
+    flat = Targets.get("compiled", eq, "flat");
+    compiled = Targets.get("compiled", eq, "compiled");
+    dual = Targets.get("compiled", eq, "dual");
+    bytecode = Targets.get("compiled", eq, "bytecode");
+  }
+
+  @Benchmark
+  public Object parse() {
+    return parse.get();
+  }
+
+  @Benchmark
+  public Object simplify() {
+    return simplify.get();
+  }
+
+  @Benchmark
+  public Object derivative() {
+    return derivative.get();
+  }
+
+  @Benchmark
+  public Object apply() {
+    return apply.get();
+  }
+
+  @Benchmark
+  public Object evalFlat() {
+    return flat.get();
+  }
+
+  @Benchmark
+  public Object evalCompiled() {
+    return compiled.get();
+  }
+
+  @Benchmark
+  public Object evalDual() {
+    return dual.get();
+  }
+
+  @Benchmark
+  public Object evalBytecode() {
+    return bytecode.get();
+  }
+}
@@ -0,0 +1,38 @@
+package bench;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// same options as jmh's own main, but results are written to jmh-result.json unless -rf/-rff say otherwise
+public final class Main {
+  private Main() {
+  }
+
+  public static void main(String[] args) throws CommandLineOptionException, IOException, RunnerException {
+    CommandLineOptions cmd = new CommandLineOptions(args);
+    if (cmd.shouldHelp()) {
+      cmd.showHelp();
+      return;
+    }
+    OptionsBuilder options = new OptionsBuilder();
+    options.parent(cmd);
+    if (!cmd.getResultFormat().hasValue()) {
+      options.resultFormat(ResultFormatType.JSON);
+    }
+    if (!cmd.getResult().hasValue()) {
+      options.result("jmh-result.json");
+    }
+    Runner runner = new Runner(options.build());
+    if (cmd.shouldList()) {
+      runner.list();
+      return;
+    }
+    runner.run();
+  }
+}
@@ -0,0 +1,43 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// one row of 512 pixels per invocation through Newton.row, for each iteration Method
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MethodBenchmark {
+  @Param({ "z^3-1", "z^8+15z^4-16", "cos z*z^3" })
+  public String eq;
+
+  @Param({ "NEWTON", "RELAXED:0.5,0.5", "HALLEY", "HOUSEHOLDER", "SCHRODER" })
+  public String method;
+
+  private Supplier<Object> target;
+
+  @Setup
+  public void setup() {
+    target = Targets.get("method", eq, method);
+  }
+
+  @Benchmark
+  public Object row() {
+    return target.get();
+  }
+}
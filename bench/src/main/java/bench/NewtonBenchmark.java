@@ -0,0 +1,43 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// one Newton.newton call per invocation, cycling through pixels of the default view
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NewtonBenchmark {
+  @Param({ "z^2-1", "z^3-1", "z^8+15z^4-16", "z^3-2z+2" })
+  public String eq;
+
+  @Param({ "SYMBOLIC", "DUAL", "BYTECODE" })
+  public String derivative;
+
+  private Supplier<Object> target;
+
+  @Setup
+  public void setup() {
+    target = Targets.get("newton", eq, derivative);
+  }
+
+  @Benchmark
+  public Object pixel() {
+    return target.get();
+  }
+}
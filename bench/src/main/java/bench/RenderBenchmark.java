@@ -0,0 +1,46 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// a whole frame of the default view, from compiling the equation to the coloured image
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderBenchmark {
+  @Param({ "z^2-1", "z^3-1", "z^8+15z^4-16", "z^3-2z+2" })
+  public String eq;
+
+  @Param({ "512" })
+  public String size;
+
+  @Param({ "1", "4" })
+  public String threads;
+
+  private Supplier<Object> target;
+
+  @Setup
+  public void setup() {
+    target = Targets.get("render", eq, size, threads);
+  }
+
+  @Benchmark
+  public Object frame() {
+    return target.get();
+  }
+}
@@ -0,0 +1,23 @@
+package bench;
+
+import java.lang.reflect.Method;
+import java.util.function.Supplier;
+
+// looks up a factory on BenchmarkTargets, see the comment there for why this goes through reflection
+final class Targets {
+  private Targets() {
+  }
+
+  @SuppressWarnings("unchecked")
+  static Supplier<Object> get(String name, String... args) {
+    try {
+      Class<?> targets = Class.forName("BenchmarkTargets");
+      Class<?>[] types = new Class<?>[args.length];
+      java.util.Arrays.fill(types, String.class);
+      Method method = targets.getMethod(name, types);
+      return (Supplier<Object>) method.invoke(null, (Object[]) args);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Can't create benchmark target " + name, e);
+    }
+  }
+}
@@ -0,0 +1,243 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+// renders the frames between keyframes to numbered pngs, see Batch --animate
+// a keyframe file has one keyframe per line: frame, equation, minX, maxX, minY, maxY, lines starting with # are skipped
+// between two keyframes the equation is blended from one to the next with Equation.lerp, which for polynomials
+// sweeps the coefficients, and the view pans in a straight line while zooming at a constant rate
+// the roots each frame converged to are carried over to the next: a few newton steps on the new equation move
+// them to where they are now, and Newton.useRoots then stops orbits as soon as they land next to one
+// a root keeps its hue for as long as it can be followed like that, so colours don't jump between frames
+// each frame is written out on another thread while the next one renders
+public final class Animation {
+  private static final int FIELDS = 6;
+
+  static final class Keyframe {
+    final int frame;
+    final Equation eq;
+    final double minX, maxX, minY, maxY;
+
+    Keyframe(int frame, Equation eq, double minX, double maxX, double minY, double maxY) {
+      this.frame = frame;
+      this.eq = eq;
+      this.minX = minX;
+      this.maxX = maxX;
+      this.minY = minY;
+      this.maxY = maxY;
+    }
+  }
+
+  final List<Keyframe> keys;
+  final int width, height, maxiter, threads;
+  final double grayscale;
+  final Newton.Derivative derivative;
+  Method method = Method.NEWTON;
+  int spread = -1;
+
+  // the roots of the last frame and their hues
+  List<Complex> roots = new ArrayList<>();
+  float[] hues = new float[0];
+
+  public Animation(List<Keyframe> keys, int width, int height, double grayscale, int maxiter,
+      Newton.Derivative derivative, int threads) {
+    if (keys.isEmpty()) {
+      throw new IllegalArgumentException("No keyframes");
+    }
+    for (int k = 1; k < keys.size(); k++) {
+      if (keys.get(k).frame <= keys.get(k - 1).frame) {
+        throw new IllegalArgumentException("Keyframes must be in order of frame, " + keys.get(k).frame
+            + " comes after " + keys.get(k - 1).frame);
+      }
+    }
+    this.keys = keys;
+    this.width = width;
+    this.height = height;
+    this.grayscale = grayscale;
+    this.maxiter = maxiter;
+    this.derivative = derivative;
+    this.threads = threads;
+  }
+
+  public static List<Keyframe> parse(List<String> lines) {
+    ArrayList<Keyframe> keys = new ArrayList<>();
+    for (String line : lines) {
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#"))
+        continue;
+      String[] fields = line.split(",");
+      if (fields.length != FIELDS) {
+        throw new IllegalArgumentException("Expected " + FIELDS + " fields but got " + fields.length + ": " + line);
+      }
+      for (int i = 0; i < fields.length; i++) {
+        fields[i] = fields[i].trim();
+      }
+      keys.add(new Keyframe(Integer.valueOf(fields[0]), Equation.parse(fields[1]).simplify(),
+          Double.valueOf(fields[2]), Double.valueOf(fields[3]), Double.valueOf(fields[4]), Double.valueOf(fields[5])));
+    }
+    return keys;
+  }
+
+  // see Newton.useMethod
+  public void useMethod(Method method) {
+    this.method = method;
+  }
+
+  // see Renderer.useFill
+  public void useFill(int spread) {
+    this.spread = spread;
+  }
+
+  // the keyframe at or before frame, the last one for frames past the end
+  private int key(int frame) {
+    int k = 0;
+    while (k + 1 < keys.size() - 1 && keys.get(k + 1).frame <= frame) {
+      k++;
+    }
+    return k;
+  }
+
+  // the centre moves linearly and the size geometrically, so a zoom looks like it runs at a constant speed
+  private static double[] bounds(double min0, double max0, double min1, double max1, double t) {
+    double centre = (min0 + max0) / 2 * (1 - t) + (min1 + max1) / 2 * t;
+    double span = (max0 - min0) * Math.pow((max1 - min1) / (max0 - min0), t);
+    return new double[] { centre - span / 2, centre + span / 2 };
+  }
+
+  // renders and writes every frame from the first keyframe's to the last one's as prefix0000.png, prefix0001.png...
+  public void render(String prefix) throws IOException {
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    ExecutorService writer = Executors.newSingleThreadExecutor();
+    Future<?> written = null;
+    try {
+      int first = keys.get(0).frame, last = keys.get(keys.size() - 1).frame;
+      for (int frame = first; frame <= last; frame++) {
+        long start = System.nanoTime();
+        Renderer renderer = frame(frame, pool);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        // at most one frame waits to be written while the next renders
+        finish(written);
+        File file = new File(String.format("%s%04d.png", prefix, frame));
+        written = writer.submit(() -> {
+          if (!ImageIO.write(renderer.bi, "png", file)) {
+            throw new IOException("No png writer available for " + file);
+          }
+          return null;
+        });
+        long iterations = 0;
+        for (int i : renderer.iter) {
+          iterations += i;
+        }
+        System.err.println(String.format("Rendered %s in %dms, %.2f iterations a pixel, %d roots", file, millis,
+            (double) iterations / renderer.iter.length, roots.size()));
+      }
+      finish(written);
+    } finally {
+      writer.shutdown();
+      pool.shutdown();
+    }
+  }
+
+  private static void finish(Future<?> written) throws IOException {
+    if (written == null)
+      return;
+    try {
+      written.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    }
+  }
+
+  // renders and colours one frame, leaving its roots for the next
+  Renderer frame(int frame, ForkJoinPool pool) {
+    int k = key(frame);
+    Keyframe from = keys.get(k), to = keys.get(Math.min(k + 1, keys.size() - 1));
+    double t = from == to ? 0 : Math.max(0, Math.min(1, (double) (frame - from.frame) / (to.frame - from.frame)));
+    Equation eq = t == 0 || from.eq.canonical().equals(to.eq.canonical()) ? from.eq : Equation.lerp(from.eq, to.eq, t);
+    double[] x = bounds(from.minX, from.maxX, to.minX, to.maxX, t);
+    double[] y = bounds(from.minY, from.maxY, to.minY, to.maxY, t);
+    // a blend is only ever drawn on this frame, so BYTECODE's class for it isn't worth keeping
+    Newton newton = Newton.of(eq, derivative, eq == from.eq, width, maxiter, x[0], x[1], y[0], y[1]);
+    if (method != Method.NEWTON) {
+      newton.useMethod(method, eq);
+    }
+
+    // follow the last frame's roots to where they are on this frame's equation
+    RootRegistry followed = new RootRegistry();
+    ArrayList<Float> followedHues = new ArrayList<>();
+    for (int r = 0; r < roots.size(); r++) {
+      newton.iterate(roots.get(r).real, roots.get(r).imag);
+      if (newton.iterations < maxiter && followed.find(newton.real, newton.imag).id == followedHues.size()) {
+        followedHues.add(hues[r]);
+      }
+    }
+    ArrayList<Complex> known = new ArrayList<>();
+    for (int r = 0; r < followed.size(); r++) {
+      RootRegistry.Root root = followed.get(r);
+      known.add(new Complex(root.real, root.imag));
+    }
+    // a polynomial's roots are cheap to find outright, which catches roots that have only just appeared
+    Complex[] coeffs = eq.coefficients();
+    if (coeffs != null) {
+      for (Complex root : Polynomial.roots(coeffs)) {
+        if (followed.find(root.real, root.imag).id == known.size()) {
+          known.add(root);
+        }
+      }
+    }
+    newton.useRoots(known);
+
+    Renderer renderer = new Renderer(newton, width, height, x[0], y[0], (x[1] - x[0]) / width,
+        (y[1] - y[0]) / height, threads);
+    renderer.usePool(pool, () -> false);
+    renderer.useFill(spread);
+    RenderMetrics metrics = new RenderMetrics("frame " + frame, width, height, maxiter);
+    renderer.useMetrics(metrics);
+    metrics.time("render", () -> renderer.render(null));
+    metrics.count(renderer.root, renderer.iter, renderer.roots.size());
+
+    // roots that were followed keep their hue, new ones take the hue of their argument like in Strips
+    float[] frameHues = new float[renderer.roots.size()];
+    for (int r = 0; r < frameHues.length; r++) {
+      Complex root = renderer.roots.get(r);
+      int id = followed.find(root.real, root.imag).id;
+      if (id < followedHues.size()) {
+        frameHues[r] = followedHues.get(id);
+      } else if (roots.isEmpty()) {
+        // the first frame is coloured like any other render
+        frameHues[r] = (float) r / frameHues.length;
+      } else {
+        frameHues[r] = (float) ((Math.atan2(root.imag, root.real) / (2 * Math.PI) + 1) % 1);
+      }
+    }
+    metrics.time("colour", () -> renderer.image(grayscale, maxiter, frameHues));
+    metrics.finish();
+    roots = renderer.roots;
+    hues = frameHues;
+    return renderer;
+  }
+
+  public static void render(String keyframes, String width_s, String height_s, String grayscale_s, String maxiter_s,
+      String prefix) throws IOException {
+    List<Keyframe> keys = parse(Files.readAllLines(new File(keyframes).toPath()));
+    Newton.Derivative derivative = Newton.Derivative.valueOf(System.getProperty("newton.derivative", "DUAL"));
+    int threads = Integer.getInteger("newton.threads", Runtime.getRuntime().availableProcessors());
+    Animation animation = new Animation(keys, Integer.valueOf(width_s), Integer.valueOf(height_s),
+        Double.valueOf(grayscale_s), Integer.valueOf(maxiter_s), derivative, threads);
+    animation.useMethod(Method.fromProperty());
+    animation.useFill(Integer.getInteger("newton.fill", -1));
+    animation.render(prefix);
+  }
+}
@@ -1,7 +1,4 @@
-import java.awt.Color;
 import java.awt.Dimension;
-import java.awt.Graphics2D;
-import java.awt.image.BufferedImage;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
@@ -10,8 +7,6 @@ import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.function.Function;
 
 import javax.imageio.ImageIO;
 import javax.swing.BorderFactory;
@@ -61,6 +56,7 @@ public final class App {
     settings.setSize(new Dimension(300, 400));
     settings.setPreferredSize(new Dimension(300, 400));
     Pair<JPanel, JTextField> eq = makeField("Equation:", "z^2 + 1"),
+        method = makeField("Method:", Method.fromProperty().toString()),
         minX = makeField("Min X:", "-2.0"),
         maxX = makeField("Max X:", "2.0"),
         minY = makeField("Min Y:", "-2.0"),
@@ -71,6 +67,7 @@ public final class App {
         maxiter = makeField("Max Iterations:", "1024");
     JButton button = new JButton("Draw");
     settings.add(eq.first);
+    settings.add(method.first);
     settings.add(horizontal(minX.first, maxX.first));
     settings.add(horizontal(minY.first, maxY.first));
     settings.add(horizontal(width.first, height.first));
@@ -90,29 +87,20 @@ public final class App {
       public void actionPerformed(ActionEvent e) {
         prepareImage(eq.second.getText(), minX.second.getText(), maxX.second.getText(), minY.second.getText(),
             maxY.second.getText(), width.second.getText(), height.second.getText(), grayscale.second.getText(),
-            maxiter.second.getText());
+            maxiter.second.getText(), method.second.getText());
       }
     });
   }
 
-  public static Thread setTimeout(Runnable runnable, int delay) {
-    Thread t = new Thread(() -> {
-      try {
-        Thread.sleep(delay);
-        runnable.run();
-      } catch (Exception e) {
-        System.err.println(e);
-      }
-    });
-    t.start();
-    return t;
-  }
-
   public static void prepareImage(String eq_s, String minX_s, String maxX_s, String minY_s,
-      String maxY_s, String width_s, String height_s, String grayscale_s, String maxiter_s) {
+      String maxY_s, String width_s, String height_s, String grayscale_s, String maxiter_s,
+      String method_s) {
+    // each window queues a render of its own, which nothing could replace if Draw kept opening them
+    if (RenderJobs.SHARED.full()) {
+      JOptionPane.showMessageDialog(null, "Too many renders are waiting, try again once some of them have started.");
+      return;
+    }
     Equation eq = Equation.parse(eq_s).simplify();
-    Function<Complex, Complex> f = eq.f();
-    Function<Complex, Complex> df = eq.derivative().simplify().f();
     double minX = Double.valueOf(minX_s);
     double maxX = Double.valueOf(maxX_s);
     double minY = Double.valueOf(minY_s);
@@ -120,10 +108,21 @@ public final class App {
     double width = Double.valueOf(width_s);
     double height = Double.valueOf(height_s);
     double grayscale = Double.valueOf(grayscale_s);
-    double maxiter = Double.valueOf(maxiter_s);
+    int maxiter = Integer.valueOf(maxiter_s);
     double incrementX = (maxX - minX) / width;
     double incrementY = (maxY - minY) / height;
-    Newton newton = new Newton(f, df, (int) width, 1024, minX, maxX, minY, maxY);
+    Newton.Derivative derivative = Newton.Derivative.valueOf(System.getProperty("newton.derivative", "DUAL"));
+    Newton newton = Newton.of(eq, derivative, (int) width, maxiter, minX, maxX, minY, maxY);
+    // NEWTON, RELAXED:re,im, HALLEY, HOUSEHOLDER or SCHRODER, see Method
+    Method method = Method.of(method_s);
+    newton.useMethod(method, eq);
+    if (Boolean.getBoolean("newton.roots")) {
+      newton.useRoots(eq);
+    }
+    // only does anything when started with --add-modules jdk.incubator.vector, -Dnewton.vector=false turns it off
+    if (Boolean.parseBoolean(System.getProperty("newton.vector", "true"))) {
+      newton.useVector(eq);
+    }
     JFrame imageFrame = new JFrame("Newton Fractal: " + eq_s);
     ImageComponent image = new ImageComponent((int) width, (int) height);
     imageFrame.setContentPane(image);
@@ -133,11 +132,17 @@ public final class App {
     imageFrame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
     imageFrame.setVisible(true);
     imageFrame.pack(); // resize
-    // allow time for resize
-    Thread t = setTimeout(
-        () -> drawImage(eq_s, image, newton, (int) width, (int) height, minX, minY, incrementX, incrementY, grayscale,
-            maxiter),
-        100);
+    // renders queue up in RenderJobs, so clicking Draw again and again can't start more than it allows at once
+    // or, since the check above, queue more than it allows
+    Viewer viewer = new Viewer(eq_s, image, newton, RenderJobs.SHARED, (int) width, (int) height,
+        grayscale, minX, minY, incrementX, incrementY);
+    // -Dnewton.results=<directory> keeps the results of the view the window opens on, see Batch
+    ResultCache results = ResultCache.fromProperty();
+    if (results != null) {
+      viewer.useResults(results, ResultCache.key(eq, derivative, method, Boolean.getBoolean("newton.roots"),
+          Viewer.FILL, minX, maxX, minY, maxY, (int) width, (int) height, newton.maxiter));
+    }
+    drawImage(eq_s, image, viewer);
     imageFrame.addWindowListener(new WindowListener() {
 
       @Override
@@ -146,7 +151,7 @@ public final class App {
 
       @Override
       public void windowClosing(WindowEvent e) {
-        t.interrupt();
+        viewer.close();
       }
 
       @Override
@@ -172,58 +177,12 @@ public final class App {
     });
   }
 
-  public static void drawImage(String eq, ImageComponent image, Newton newton, int width, int height, double minX,
-      double minY, double incrementX, double incrementY, double grayscale, double maxiter) {
-
-    Graphics2D g2d = (Graphics2D) image.getGraphics();
-    image.setIgnoreRepaint(true);
-
-    ArrayList<Complex> list = new ArrayList<>();
-    ArrayList<Pair<Integer, Integer>> pairs = new ArrayList<>();
-
-    for (int x = 0; x < width; x++) {
-      for (int y = 0; y < height; y++) {
-        Complex pt = new Complex(minX + incrementX * x, minY + incrementY * y);
-        Pair<Complex, Integer> data = newton.newton(pt);
-        int idx = list.indexOf(data.first);
-        if (idx == -1) {
-          if (data.second != (int) maxiter) {
-            idx = list.size();
-            list.add(data.first);
-          }
-        }
-        pairs.add(new Pair<>(idx, data.second));
-        float brightness = (float) Math.pow(1d - ((double) data.second / maxiter), grayscale);
-        Color color = Color.getHSBColor(0, 0, brightness);
-        g2d.setColor(color);
-        g2d.fillRect(x, y, 1, 1);
-      }
-    }
-
-    int n_hues = list.size();
-    float[] hues = new float[n_hues];
-    for (int i = 0; i < n_hues; i++) {
-      float hue = (float) i / (float) n_hues;
-      hues[i] = hue;
-    }
-
-    BufferedImage bi = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-    Graphics2D g2d2 = (Graphics2D) bi.getGraphics();
-    int i = 0;
-    for (int x = 0; x < width; x++) {
-      for (int y = 0; y < height; y++, i++) {
-        Pair<Integer, Integer> pair = pairs.get(i);
-        int hue_i = pair.first, iter = pair.second;
-        float hue = hue_i == -1 ? 0 : hues[hue_i];
-        float saturation = 1;
-        float brightness = (float) Math.pow(1d - ((double) iter / 1024d), 100d);
-        Color color = Color.getHSBColor(hue, saturation, brightness);
-        g2d.setColor(color);
-        g2d2.setColor(color);
-        g2d.fillRect(x, y, 1, 1);
-        g2d2.fillRect(x, y, 1, 1);
-      }
-    }
+  public static void drawImage(String eq, ImageComponent image, Viewer viewer) {
+    // coarse passes first, so something useful shows up long before the full resolution one is done
+    viewer.show();
+    image.addMouseListener(viewer);
+    image.addMouseMotionListener(viewer);
+    image.addMouseWheelListener(viewer);
     image.addMouseListener(new MouseListener() {
 
       @Override
@@ -252,7 +211,8 @@ public final class App {
             }
             if (extension != null) {
               try {
-                ImageIO.write(bi, extension, file);
+                // whatever the view has been zoomed or panned to
+                ImageIO.write(image.image, extension, file);
                 JOptionPane.showMessageDialog(image, "Image successfully saved");
               } catch (IOException e1) {
                 e1.printStackTrace();
@@ -283,7 +243,12 @@ public final class App {
     });
   }
 
-  public static void main(String[] args) {
+  public static void main(String[] args) throws IOException {
+    if (args.length > 0) {
+      // arguments mean a headless render, see Batch
+      Batch.main(args);
+      return;
+    }
     new App();
   }
 }
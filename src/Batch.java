@@ -0,0 +1,173 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+// renders straight to png files without opening any windows
+//   java Batch <equation> <minX> <maxX> <minY> <maxY> <width> <height> <grayscale> <maxiter> <output.png>
+//   java Batch --jobs <file>
+//   java Batch --animate <keyframes> <width> <height> <grayscale> <maxiter> <output prefix>
+// a job file has one render per line with the same fields separated by commas, lines starting with # are skipped
+// all the jobs run in the same jvm, so only the first one pays for startup and jit warmup
+public final class Batch {
+  private static final int FIELDS = 10;
+
+  // returns how many pixels were filled in by Renderer.useFill, set with -Dnewton.fill
+  // the RenderMetrics of each render are published over jmx, and written to -Dnewton.metrics if it is set
+  public static long render(String eq_s, String minX_s, String maxX_s, String minY_s, String maxY_s, String width_s,
+      String height_s, String grayscale_s, String maxiter_s, String output_s) throws IOException {
+    double minX = Double.valueOf(minX_s);
+    double maxX = Double.valueOf(maxX_s);
+    double minY = Double.valueOf(minY_s);
+    double maxY = Double.valueOf(maxY_s);
+    int width = Integer.valueOf(width_s);
+    int height = Integer.valueOf(height_s);
+    double grayscale = Double.valueOf(grayscale_s);
+    int maxiter = Integer.valueOf(maxiter_s);
+    double incrementX = (maxX - minX) / width;
+    double incrementY = (maxY - minY) / height;
+    RenderMetrics metrics = new RenderMetrics(eq_s, width, height, maxiter);
+    Equation parsed = metrics.time("parse", () -> Equation.parse(eq_s));
+    Equation eq = metrics.time("simplify", parsed::simplify);
+    Newton.Derivative derivative = Newton.Derivative.valueOf(System.getProperty("newton.derivative", "DUAL"));
+    Newton newton;
+    if (derivative == Newton.Derivative.SYMBOLIC) {
+      Equation df = metrics.time("derivative", () -> eq.derivative().simplify());
+      newton = metrics.time("compile", () -> Newton.symbolic(eq, df, width, maxiter, minX, maxX, minY, maxY));
+    } else {
+      newton = metrics.time("compile", () -> Newton.of(eq, derivative, width, maxiter, minX, maxX, minY, maxY));
+    }
+    // -Dnewton.method picks the iteration, see Method
+    Method method = Method.fromProperty();
+    if (method != Method.NEWTON) {
+      metrics.time("compile", () -> newton.useMethod(method, eq));
+    }
+    if (Boolean.getBoolean("newton.roots")) {
+      metrics.time("roots", () -> newton.useRoots(eq));
+    }
+    // only does anything when started with --add-modules jdk.incubator.vector, -Dnewton.vector=false turns it off
+    if (Boolean.parseBoolean(System.getProperty("newton.vector", "true"))) {
+      newton.useVector(eq);
+    }
+    int threads = Integer.getInteger("newton.threads", Runtime.getRuntime().availableProcessors());
+    int fill = Integer.getInteger("newton.fill", -1);
+    File file = new File(output_s);
+    // -Dnewton.workers=<count of local jvms or host:port list> renders on worker jvms, see Coordinator
+    String workers = System.getProperty("newton.workers");
+    if (workers != null) {
+      Coordinator coordinator = new Coordinator(eq_s, derivative, width, height, maxiter, minX, minY, incrementX,
+          incrementY);
+      coordinator.useMethod(method);
+      coordinator.useRoots(Boolean.getBoolean("newton.roots"));
+      coordinator.useFill(fill);
+      coordinator.useMetrics(metrics);
+      coordinator.addWorkers(workers, threads);
+      metrics.time("render", coordinator::render);
+      metrics.count(coordinator.root, coordinator.iter, coordinator.roots.size());
+      long start = System.nanoTime();
+      try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+        coordinator.write(grayscale, maxiter, out);
+      } catch (IOException | RuntimeException e) {
+        // don't leave a truncated png behind
+        file.delete();
+        throw e;
+      }
+      metrics.add("write", System.nanoTime() - start);
+      metrics.finish();
+      return 0;
+    }
+    // -Dnewton.strips=<rows> streams the image out a strip of rows at a time, for images too big to hold in memory
+    int strips = Integer.getInteger("newton.strips", 0);
+    if (strips > 0) {
+      Strips renderer = new Strips(eq, newton, width, height, minX, minY, incrementX, incrementY, threads);
+      renderer.useFill(fill);
+      renderer.useMetrics(metrics);
+      long filled;
+      long start = System.nanoTime();
+      try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+        filled = renderer.write(strips, grayscale, maxiter, out);
+      } catch (IOException | RuntimeException e) {
+        file.delete();
+        throw e;
+      }
+      // every strip is coloured and written before the next one renders, so it all counts as rendering
+      metrics.add("render", System.nanoTime() - start);
+      metrics.finish();
+      return filled;
+    }
+    Renderer renderer = new Renderer(newton, width, height, minX, minY, incrementX, incrementY, threads);
+    renderer.useFill(fill);
+    renderer.useMetrics(metrics);
+    // -Dnewton.results=<directory> keeps the results, so rendering the same view again only colours it
+    ResultCache results = ResultCache.fromProperty();
+    String key = results == null ? null
+        : ResultCache.key(eq, derivative, method, Boolean.getBoolean("newton.roots"), fill, minX, maxX, minY, maxY,
+            width, height, maxiter);
+    long start = System.nanoTime();
+    if (results != null && results.load(key, renderer)) {
+      metrics.add("load", System.nanoTime() - start);
+    } else {
+      metrics.time("render", () -> renderer.render(null));
+      if (results != null) {
+        results.save(key, renderer);
+      }
+    }
+    metrics.count(renderer.root, renderer.iter, renderer.roots.size());
+    metrics.time("colour", () -> renderer.image(grayscale, maxiter));
+    start = System.nanoTime();
+    if (!ImageIO.write(renderer.bi, "png", file)) {
+      throw new IOException("No png writer available for " + file);
+    }
+    metrics.add("write", System.nanoTime() - start);
+    metrics.finish();
+    return renderer.filled();
+  }
+
+  private static void render(String[] fields) throws IOException {
+    if (fields.length != FIELDS) {
+      throw new IllegalArgumentException("Expected " + FIELDS + " fields but got " + fields.length);
+    }
+    long start = System.nanoTime();
+    long filled = render(fields[0], fields[1], fields[2], fields[3], fields[4], fields[5], fields[6], fields[7],
+        fields[8], fields[9]);
+    long millis = (System.nanoTime() - start) / 1_000_000;
+    String saved = "";
+    if (filled > 0) {
+      long pixels = Long.valueOf(fields[5]) * Long.valueOf(fields[6]);
+      saved = String.format(", filled %d of %d pixels (%.1f%%)", filled, pixels, 100d * filled / pixels);
+    }
+    System.err.println("Wrote " + fields[9] + " (" + fields[0] + ") in " + millis + "ms" + saved);
+  }
+
+  public static void main(String[] args) throws IOException {
+    System.setProperty("java.awt.headless", "true");
+    if (args.length == 2 && args[0].equals("--jobs")) {
+      List<String> lines = Files.readAllLines(new File(args[1]).toPath());
+      for (String line : lines) {
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#"))
+          continue;
+        String[] fields = line.split(",");
+        for (int i = 0; i < fields.length; i++) {
+          fields[i] = fields[i].trim();
+        }
+        render(fields);
+      }
+    } else if (args.length == 7 && args[0].equals("--animate")) {
+      Animation.render(args[1], args[2], args[3], args[4], args[5], args[6]);
+    } else if (args.length == FIELDS) {
+      render(args);
+    } else {
+      System.err.println(
+          "usage: Batch <equation> <minX> <maxX> <minY> <maxY> <width> <height> <grayscale> <maxiter> <output.png>");
+      System.err.println("       Batch --jobs <file>");
+      System.err.println("       Batch --animate <keyframes> <width> <height> <grayscale> <maxiter> <output prefix>");
+      System.exit(1);
+    }
+  }
+}
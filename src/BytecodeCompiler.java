@@ -0,0 +1,561 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// turns the instructions of a CompiledEquation into a hidden class whose evalDual is straight line code on
+// local doubles, with no registers in arrays and no switch, so the jit can inline the whole of f and f'
+// into newton's loop
+// the code does exactly the arithmetic CompiledEquation.evalDual does in the same order, so it gives the same
+// results bit for bit; POWI and HORNER are unrolled since their exponents are known, and POW, which branches
+// on its operands, calls powDual
+// there are no branches at all, so the class needs no stack map frames
+public final class BytecodeCompiler {
+  // hotspot leaves methods with more bytecode than this interpreted, which is far slower than DUAL
+  static final int HUGE_METHOD = 8000;
+  // how many generated classes are kept
+  static final int CACHED = 64;
+  // generated classes by Equation.canonical(), so zooming and drawing the same equation again reuse them
+  // least recently used first, a hidden class can be unloaded once it has been dropped from here and nothing
+  // else uses it; guarded by itself
+  private static final LinkedHashMap<String, DualFunction> CACHE = new LinkedHashMap<>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, DualFunction> eldest) {
+      return size() > CACHED;
+    }
+  };
+
+  // opcodes
+  private static final int ICONST_0 = 0x03, DCONST_0 = 0x0e, DCONST_1 = 0x0f, LDC2_W = 0x14, DLOAD = 0x18,
+      ALOAD = 0x19, DALOAD = 0x31, DSTORE = 0x39, DASTORE = 0x52, DADD = 0x63, DSUB = 0x67, DMUL = 0x6b,
+      DDIV = 0x6f, DNEG = 0x77, RETURN = 0xb1, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, WIDE = 0xc4,
+      BIPUSH = 0x10;
+  // this, zr, zi, out
+  private static final int ZR = 1, ZI = 3, OUT = 5;
+
+  private BytecodeCompiler() {
+  }
+
+  // the generated class for eq, which should already be simplified
+  // returns null if the class can't be generated, in which case evaluate through eq.compile() instead
+  public static DualFunction of(Equation eq) {
+    return of(eq, true);
+  }
+
+  // the same, without looking in or adding to the cache when cache is false, for equations that won't come
+  // up again like the blends between an animation's keyframes, so their classes can be unloaded once unused
+  public static DualFunction of(Equation eq, boolean cache) {
+    if (!cache) {
+      try {
+        return generate(eq.compile());
+      } catch (RuntimeException e) {
+        return null;
+      }
+    }
+    String key = eq.canonical();
+    synchronized (CACHE) {
+      DualFunction cached = CACHE.get(key);
+      if (cached != null) {
+        return cached;
+      }
+    }
+    DualFunction generated;
+    try {
+      generated = generate(eq.compile());
+    } catch (RuntimeException e) {
+      return null;
+    }
+    synchronized (CACHE) {
+      DualFunction existing = CACHE.putIfAbsent(key, generated);
+      return existing == null ? generated : existing;
+    }
+  }
+
+  static DualFunction generate(CompiledEquation f) {
+    byte[] bytes = new BytecodeCompiler.Writer(f).classFile();
+    try {
+      MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+      return (DualFunction) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+    } catch (Throwable e) {
+      throw new RuntimeException("Couldn't define the class for " + f, e);
+    }
+  }
+
+  // the POW case of CompiledEquation.evalDual, writing { re, im, dre, dim } to out
+  public static void powDual(double ar, double ai, double br, double bi, double dar, double dai, double dbr,
+      double dbi, double[] out) {
+    pow(ar, ai, br, bi, out);
+    double pr = out[0], pi = out[1];
+    double tr, ti;
+    if (dbr == 0 && dbi == 0) {
+      // constant power: (u^v)' = v * u^(v-1) * u'
+      if (ar == 0 && ai == 0) {
+        pow(ar, ai, br - 1, bi, out);
+        tr = out[0];
+        ti = out[1];
+      } else {
+        double abs2 = ar * ar + ai * ai;
+        tr = (pr * ar + pi * ai) / abs2;
+        ti = (pi * ar - pr * ai) / abs2;
+      }
+      double vr = br * tr - bi * ti;
+      double vi = br * ti + bi * tr;
+      tr = vr;
+      ti = vi;
+    } else {
+      // (u^v)' = u^v * (v' * ln(u) + v * u' / u)
+      double lr = 0.5 * Math.log(ar * ar + ai * ai);
+      double li = Math.atan2(ai, ar);
+      double abs2 = ar * ar + ai * ai;
+      double qr = (dar * ar + dai * ai) / abs2;
+      double qi = (dai * ar - dar * ai) / abs2;
+      double sr = dbr * lr - dbi * li + br * qr - bi * qi;
+      double si = dbr * li + dbi * lr + br * qi + bi * qr;
+      tr = pr * sr - pi * si;
+      ti = pr * si + pi * sr;
+      dar = 1;
+      dai = 0;
+    }
+    out[0] = pr;
+    out[1] = pi;
+    out[2] = tr * dar - ti * dai;
+    out[3] = tr * dai + ti * dar;
+  }
+
+  // CompiledEquation.pow, leaving the result in out[0] and out[1]
+  private static void pow(double ar, double ai, double br, double bi, double[] out) {
+    if (bi == 0 && br % 1 == 0) {
+      int n = (int) br;
+      double outR = 1, outI = 0;
+      for (int k = n < 0 ? -n : n; k != 0; k >>>= 1) {
+        if ((k & 1) != 0) {
+          double t = outR * ar - outI * ai;
+          outI = outR * ai + outI * ar;
+          outR = t;
+        }
+        double t = ar * ar - ai * ai;
+        ai = 2 * ar * ai;
+        ar = t;
+      }
+      if (n < 0) {
+        double abs2 = outR * outR + outI * outI;
+        outR = outR / abs2;
+        outI = -outI / abs2;
+      }
+      out[0] = outR;
+      out[1] = outI;
+      return;
+    }
+    double logAbs = 0.5 * Math.log(ar * ar + ai * ai);
+    double arg = Math.atan2(ai, ar);
+    double abs = Math.exp(br * logAbs - bi * arg);
+    double angle = br * arg + bi * logAbs;
+    out[0] = abs * Math.cos(angle);
+    out[1] = abs * Math.sin(angle);
+  }
+
+  // builds the class file, the method body first since that fills in most of the constant pool
+  private static final class Writer {
+    final CompiledEquation f;
+    final ByteArrayOutputStream code = new ByteArrayOutputStream();
+    final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    final HashMap<String, Integer> entries = new HashMap<>();
+    int poolSize = 1;
+    // the next free local, each double takes two slots
+    int next = OUT + 1;
+    int stack, maxStack;
+    // the locals holding each register and its derivative
+    final int[] re, im, dre, dim;
+    int zero, one;
+
+    Writer(CompiledEquation f) {
+      this.f = f;
+      int n = f.registers();
+      this.re = new int[n];
+      this.im = new int[n];
+      this.dre = new int[n];
+      this.dim = new int[n];
+    }
+
+    byte[] classFile() {
+      String name = "GeneratedDualFunction";
+      int thisClass = classEntry(name);
+      int objectClass = classEntry("java/lang/Object");
+      int iface = classEntry("DualFunction");
+      int init = utf8("<init>"), initType = utf8("()V");
+      int objectInit = ref(10, "java/lang/Object", "<init>", "()V");
+      int eval = utf8("evalDual"), evalType = utf8("(DD[D)V");
+      int codeName = utf8("Code");
+      byte[] evalCode = evalDual();
+      int evalStack = maxStack, evalLocals = next;
+      if (evalCode.length > HUGE_METHOD || next > 65535) {
+        throw new RuntimeException("Equation too big to generate a method the jit will compile");
+      }
+      try {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(61); // java 17
+        out.writeShort(poolSize);
+        out.write(pool.toByteArray());
+        out.writeShort(0x0001 | 0x0010 | 0x0020); // public final super
+        out.writeShort(thisClass);
+        out.writeShort(objectClass);
+        out.writeShort(1);
+        out.writeShort(iface);
+        out.writeShort(0); // fields
+        out.writeShort(2); // methods
+        // public <init>() { super(); }
+        out.writeShort(0x0001);
+        out.writeShort(init);
+        out.writeShort(initType);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + 5);
+        out.writeShort(1);
+        out.writeShort(1);
+        out.writeInt(5);
+        out.writeByte(ALOAD + 0x11); // aload_0
+        out.writeByte(INVOKESPECIAL);
+        out.writeShort(objectInit);
+        out.writeByte(RETURN);
+        out.writeShort(0);
+        out.writeShort(0);
+        // public void evalDual(double zr, double zi, double[] out)
+        out.writeShort(0x0001);
+        out.writeShort(eval);
+        out.writeShort(evalType);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + evalCode.length);
+        out.writeShort(evalStack);
+        out.writeShort(evalLocals);
+        out.writeInt(evalCode.length);
+        out.write(evalCode);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(0); // class attributes
+        return bytes.toByteArray();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    byte[] evalDual() {
+      zero = constant(0);
+      one = constant(1);
+      boolean[] written = new boolean[re.length];
+      for (int i = 0; i < f.size(); i++) {
+        written[f.dst[i]] = true;
+      }
+      re[0] = ZR;
+      im[0] = ZI;
+      dre[0] = one;
+      dim[0] = zero;
+      for (int r = 1; r < re.length; r++) {
+        if (!written[r]) {
+          re[r] = constant(f.constantRe(r));
+          im[r] = constant(f.constantIm(r));
+          dre[r] = zero;
+          dim[r] = zero;
+        }
+      }
+      for (int i = 0; i < f.size(); i++) {
+        instruction(f.ops[i], f.dst[i], f.a[i], f.b[i], f.imm[i]);
+      }
+      int result = f.result;
+      int[] outputs = { re[result], im[result], dre[result], dim[result] };
+      for (int k = 0; k < 4; k++) {
+        local(ALOAD, OUT, 1);
+        op(ICONST_0 + k, 1);
+        local(DLOAD, outputs[k], 2);
+        op(DASTORE, -4);
+      }
+      op(RETURN, 0);
+      return code.toByteArray();
+    }
+
+    void instruction(int op, int d, int a, int b, int n) {
+      int ar = re[a], ai = im[a], br = re[b], bi = im[b];
+      int dar = dre[a], dai = dim[a], dbr = dre[b], dbi = dim[b];
+      switch (op) {
+        case CompiledEquation.ADD:
+          set(d, add(ar, br), add(ai, bi), add(dar, dbr), add(dai, dbi));
+          break;
+        case CompiledEquation.SUB:
+          set(d, sub(ar, br), sub(ai, bi), sub(dar, dbr), sub(dai, dbi));
+          break;
+        case CompiledEquation.MUL:
+          set(d, sub(mul(ar, br), mul(ai, bi)), add(mul(ar, bi), mul(ai, br)),
+              sub(add(sub(mul(dar, br), mul(dai, bi)), mul(ar, dbr)), mul(ai, dbi)),
+              add(add(add(mul(dar, bi), mul(dai, br)), mul(ar, dbi)), mul(ai, dbr)));
+          break;
+        case CompiledEquation.DIV: {
+          int abs2 = add(mul(br, br), mul(bi, bi));
+          int qr = div(add(mul(ar, br), mul(ai, bi)), abs2);
+          int qi = div(sub(mul(ai, br), mul(ar, bi)), abs2);
+          int nr = sub(dar, sub(mul(qr, dbr), mul(qi, dbi)));
+          int ni = sub(dai, add(mul(qr, dbi), mul(qi, dbr)));
+          set(d, qr, qi, div(add(mul(nr, br), mul(ni, bi)), abs2), div(sub(mul(ni, br), mul(nr, bi)), abs2));
+          break;
+        }
+        case CompiledEquation.POW: {
+          for (int slot : new int[] { ar, ai, br, bi, dar, dai, dbr, dbi }) {
+            local(DLOAD, slot, 2);
+          }
+          local(ALOAD, OUT, 1);
+          op(INVOKESTATIC, -17);
+          u2(ref(10, "BytecodeCompiler", "powDual", "(DDDDDDDD[D)V"));
+          set(d, element(0), element(1), element(2), element(3));
+          break;
+        }
+        case CompiledEquation.POWI: {
+          if (n == 0) {
+            set(d, one, zero, zero, zero);
+            break;
+          }
+          int[] t = powi(ar, ai, n - 1);
+          int tr = t[0], ti = t[1], nd = constant(n);
+          set(d, sub(mul(tr, ar), mul(ti, ai)), add(mul(tr, ai), mul(ti, ar)),
+              mul(nd, sub(mul(tr, dar), mul(ti, dai))), mul(nd, add(mul(tr, dai), mul(ti, dar))));
+          break;
+        }
+        case CompiledEquation.HORNER: {
+          // p(w) with w = z^g, so the derivative is p'(w) * g * z^(g-1)
+          int wr = ZR, wi = ZI, dwr = one, dwi = zero;
+          if (n > 1) {
+            int[] p = powi(ZR, ZI, n - 1);
+            int g = constant(n);
+            dwr = mul(g, p[0]);
+            dwi = mul(g, p[1]);
+            wr = sub(mul(p[0], ZR), mul(p[1], ZI));
+            wi = add(mul(p[0], ZI), mul(p[1], ZR));
+          }
+          int pr = ar, pi = ai, qr = zero, qi = zero;
+          for (int c = a + 1; c <= b; c++) {
+            int t = add(sub(mul(qr, wr), mul(qi, wi)), pr);
+            qi = add(add(mul(qr, wi), mul(qi, wr)), pi);
+            qr = t;
+            t = add(sub(mul(pr, wr), mul(pi, wi)), re[c]);
+            pi = add(add(mul(pr, wi), mul(pi, wr)), im[c]);
+            pr = t;
+          }
+          set(d, pr, pi, sub(mul(qr, dwr), mul(qi, dwi)), add(mul(qr, dwi), mul(qi, dwr)));
+          break;
+        }
+        case CompiledEquation.SIN: {
+          int sr = math("sin", ar), cr = math("cos", ar), ch = math("cosh", ai), sh = math("sinh", ai);
+          int tr = mul(cr, ch), ti = mul(neg(sr), sh);
+          set(d, mul(sr, ch), mul(cr, sh), sub(mul(tr, dar), mul(ti, dai)), add(mul(tr, dai), mul(ti, dar)));
+          break;
+        }
+        case CompiledEquation.COS: {
+          int sr = math("sin", ar), cr = math("cos", ar), ch = math("cosh", ai), sh = math("sinh", ai);
+          int tr = mul(neg(sr), ch), ti = mul(neg(cr), sh);
+          set(d, mul(cr, ch), mul(neg(sr), sh), sub(mul(tr, dar), mul(ti, dai)), add(mul(tr, dai), mul(ti, dar)));
+          break;
+        }
+        case CompiledEquation.LN: {
+          int abs2 = add(mul(ar, ar), mul(ai, ai));
+          set(d, mul(constant(0.5), math("log", abs2)), math("atan2", ai, ar),
+              div(add(mul(dar, ar), mul(dai, ai)), abs2), div(sub(mul(dai, ar), mul(dar, ai)), abs2));
+          break;
+        }
+        default:
+          throw new RuntimeException("Not yet implemented " + op);
+      }
+    }
+
+    void set(int d, int r, int i, int dr, int di) {
+      re[d] = r;
+      im[d] = i;
+      dre[d] = dr;
+      dim[d] = di;
+    }
+
+    // CompiledEquation.powi unrolled for a known n, without the last squaring which is never used
+    int[] powi(int ar, int ai, int n) {
+      int outR = one, outI = zero;
+      for (int k = n < 0 ? -n : n; k != 0; k >>>= 1) {
+        if ((k & 1) != 0) {
+          int t = sub(mul(outR, ar), mul(outI, ai));
+          outI = add(mul(outR, ai), mul(outI, ar));
+          outR = t;
+        }
+        if ((k >>> 1) != 0) {
+          int t = sub(mul(ar, ar), mul(ai, ai));
+          ai = mul(mul(constant(2), ar), ai);
+          ar = t;
+        }
+      }
+      if (n < 0) {
+        int abs2 = add(mul(outR, outR), mul(outI, outI));
+        outR = div(outR, abs2);
+        outI = div(neg(outI), abs2);
+      }
+      return new int[] { outR, outI };
+    }
+
+    int add(int x, int y) {
+      return binary(DADD, x, y);
+    }
+
+    int sub(int x, int y) {
+      return binary(DSUB, x, y);
+    }
+
+    int mul(int x, int y) {
+      return binary(DMUL, x, y);
+    }
+
+    int div(int x, int y) {
+      return binary(DDIV, x, y);
+    }
+
+    int binary(int opcode, int x, int y) {
+      local(DLOAD, x, 2);
+      local(DLOAD, y, 2);
+      op(opcode, -2);
+      return store();
+    }
+
+    int neg(int x) {
+      local(DLOAD, x, 2);
+      op(DNEG, 0);
+      return store();
+    }
+
+    // Math.name applied to the locals
+    int math(String name, int... args) {
+      for (int arg : args) {
+        local(DLOAD, arg, 2);
+      }
+      op(INVOKESTATIC, 2 - 2 * args.length);
+      u2(ref(10, "java/lang/Math", name, "(" + "D".repeat(args.length) + ")D"));
+      return store();
+    }
+
+    // out[k]
+    int element(int k) {
+      local(ALOAD, OUT, 1);
+      op(ICONST_0 + k, 1);
+      op(DALOAD, 0);
+      return store();
+    }
+
+    int constant(double value) {
+      if (Double.doubleToRawLongBits(value) == 0) {
+        op(DCONST_0, 2);
+      } else if (value == 1) {
+        op(DCONST_1, 2);
+      } else {
+        op(LDC2_W, 2);
+        u2(doubleEntry(value));
+      }
+      return store();
+    }
+
+    int store() {
+      int slot = next;
+      next += 2;
+      local(DSTORE, slot, -2);
+      return slot;
+    }
+
+    void local(int opcode, int slot, int delta) {
+      if (slot > 255) {
+        op(WIDE, 0);
+        code.write(opcode);
+        u2(slot);
+      } else {
+        op(opcode, 0);
+        code.write(slot);
+      }
+      depth(delta);
+    }
+
+    void op(int opcode, int delta) {
+      code.write(opcode);
+      depth(delta);
+    }
+
+    void depth(int delta) {
+      stack += delta;
+      maxStack = Math.max(maxStack, stack);
+    }
+
+    void u2(int value) {
+      code.write(value >>> 8);
+      code.write(value);
+    }
+
+    // constant pool entries, shared when they are the same
+    int utf8(String s) {
+      return entry("utf8:" + s, out -> {
+        out.writeByte(1);
+        out.writeUTF(s);
+      }, 1);
+    }
+
+    int classEntry(String name) {
+      int utf = utf8(name);
+      return entry("class:" + name, out -> {
+        out.writeByte(7);
+        out.writeShort(utf);
+      }, 1);
+    }
+
+    int ref(int tag, String owner, String name, String type) {
+      int owning = classEntry(owner);
+      int n = utf8(name), t = utf8(type);
+      int nameAndType = entry("nat:" + name + type, out -> {
+        out.writeByte(12);
+        out.writeShort(n);
+        out.writeShort(t);
+      }, 1);
+      return entry("ref:" + owner + "." + name + type, out -> {
+        out.writeByte(tag);
+        out.writeShort(owning);
+        out.writeShort(nameAndType);
+      }, 1);
+    }
+
+    int doubleEntry(double value) {
+      return entry("double:" + Double.doubleToRawLongBits(value), out -> {
+        out.writeByte(6);
+        out.writeDouble(value);
+      }, 2);
+    }
+
+    interface Entry {
+      void write(DataOutputStream out) throws IOException;
+    }
+
+    // slots is 2 for doubles, which take up two indices of the pool
+    int entry(String key, Entry entry, int slots) {
+      Integer index = entries.get(key);
+      if (index != null) {
+        return index;
+      }
+      try {
+        entry.write(new DataOutputStream(pool));
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      index = poolSize;
+      poolSize += slots;
+      if (poolSize > 65535) {
+        throw new RuntimeException("Equation too big to generate a class for");
+      }
+      entries.put(key, index);
+      return index;
+    }
+  }
+}
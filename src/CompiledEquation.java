@@ -0,0 +1,401 @@
+import java.util.List;
+import java.util.function.Function;
+
+// flat register machine produced by Equation.compile()
+// register 0 holds z, constants are loaded into their registers once,
+// and every instruction writes the result of one tree node into its own register
+// evalDual carries a derivative register next to every value register (forward mode
+// dual numbers), so f(z) and f'(z) come out of one pass without building derivative()
+// the registers are reused between calls, so use copy() to get one per thread
+public final class CompiledEquation {
+  static final int POW = 0, MUL = 1, DIV = 2, ADD = 3, SUB = 4, COS = 5, SIN = 6, LN = 7;
+  // fast paths that don't come from a single tree node
+  // HORNER evaluates the polynomial with coefficients in registers a..b (highest power first) at z^imm
+  // POWI raises a to the integer power imm by squaring
+  static final int HORNER = 8, POWI = 9;
+
+  // read by BytecodeCompiler
+  final int[] ops, dst, a, b, imm;
+  final int result;
+  private final double[] re, im, dre, dim;
+
+  // result of the last call to eval, dreal/dimag are only set by evalDual
+  public double real, imag, dreal, dimag;
+
+  // output of pow, so it doesn't need to allocate
+  private double powR, powI;
+
+  static int opcode(Equation.Type type) {
+    switch (type) {
+      case POW:
+        return POW;
+      case MUL:
+        return MUL;
+      case DIV:
+        return DIV;
+      case ADD:
+        return ADD;
+      case SUB:
+        return SUB;
+      case COS:
+        return COS;
+      case SIN:
+        return SIN;
+      case LN:
+        return LN;
+      default:
+        throw new RuntimeException("Not yet implemented " + type);
+    }
+  }
+
+  // registers holds the constant for constant registers and null for everything else
+  // each instruction is { opcode, dst, a, b, imm }, a and b are always registers
+  CompiledEquation(List<Complex> registers, List<int[]> code, int result) {
+    int n = code.size();
+    this.ops = new int[n];
+    this.dst = new int[n];
+    this.a = new int[n];
+    this.b = new int[n];
+    this.imm = new int[n];
+    for (int i = 0; i < n; i++) {
+      int[] instruction = code.get(i);
+      ops[i] = instruction[0];
+      dst[i] = instruction[1];
+      a[i] = instruction[2];
+      b[i] = instruction[3];
+      imm[i] = instruction[4];
+    }
+    this.result = result;
+    this.re = new double[registers.size()];
+    this.im = new double[registers.size()];
+    // constants have a derivative of 0, dre[0] is set to 1 by evalDual
+    this.dre = new double[registers.size()];
+    this.dim = new double[registers.size()];
+    for (int i = 0; i < registers.size(); i++) {
+      Complex c = registers.get(i);
+      if (c != null) {
+        re[i] = c.real;
+        im[i] = c.imag;
+      }
+    }
+  }
+
+  private CompiledEquation(CompiledEquation other) {
+    this.ops = other.ops;
+    this.dst = other.dst;
+    this.a = other.a;
+    this.b = other.b;
+    this.imm = other.imm;
+    this.result = other.result;
+    this.re = other.re.clone();
+    this.im = other.im.clone();
+    this.dre = other.dre.clone();
+    this.dim = other.dim.clone();
+  }
+
+  public CompiledEquation copy() {
+    return new CompiledEquation(this);
+  }
+
+  public int size() {
+    return ops.length;
+  }
+
+  int registers() {
+    return re.length;
+  }
+
+  // the value of constant register r, only meaningful for registers no instruction writes to
+  double constantRe(int r) {
+    return re[r];
+  }
+
+  double constantIm(int r) {
+    return im[r];
+  }
+
+  public void eval(double zr, double zi) {
+    final double[] re = this.re, im = this.im;
+    re[0] = zr;
+    im[0] = zi;
+    for (int i = 0; i < ops.length; i++) {
+      int d = dst[i];
+      double ar = re[a[i]], ai = im[a[i]], br = re[b[i]], bi = im[b[i]];
+      switch (ops[i]) {
+        case ADD:
+          re[d] = ar + br;
+          im[d] = ai + bi;
+          break;
+        case SUB:
+          re[d] = ar - br;
+          im[d] = ai - bi;
+          break;
+        case MUL:
+          re[d] = ar * br - ai * bi;
+          im[d] = ar * bi + ai * br;
+          break;
+        case DIV: {
+          double abs2 = br * br + bi * bi;
+          re[d] = (ar * br + ai * bi) / abs2;
+          im[d] = (ai * br - ar * bi) / abs2;
+          break;
+        }
+        case POW:
+          pow(ar, ai, br, bi);
+          re[d] = powR;
+          im[d] = powI;
+          break;
+        case POWI:
+          powi(ar, ai, imm[i]);
+          re[d] = powR;
+          im[d] = powI;
+          break;
+        case HORNER: {
+          double wr = zr, wi = zi;
+          if (imm[i] > 1) {
+            powi(zr, zi, imm[i]);
+            wr = powR;
+            wi = powI;
+          }
+          double pr = ar, pi = ai;
+          for (int c = a[i] + 1; c <= b[i]; c++) {
+            double t = pr * wr - pi * wi + re[c];
+            pi = pr * wi + pi * wr + im[c];
+            pr = t;
+          }
+          re[d] = pr;
+          im[d] = pi;
+          break;
+        }
+        case SIN:
+          re[d] = Math.sin(ar) * Math.cosh(ai);
+          im[d] = Math.cos(ar) * Math.sinh(ai);
+          break;
+        case COS:
+          re[d] = Math.cos(ar) * Math.cosh(ai);
+          im[d] = -Math.sin(ar) * Math.sinh(ai);
+          break;
+        case LN:
+          re[d] = 0.5 * Math.log(ar * ar + ai * ai);
+          im[d] = Math.atan2(ai, ar);
+          break;
+      }
+    }
+    real = re[result];
+    imag = im[result];
+  }
+
+  // evaluates f(z) into real/imag and f'(z) into dreal/dimag
+  public void evalDual(double zr, double zi) {
+    final double[] re = this.re, im = this.im, dre = this.dre, dim = this.dim;
+    re[0] = zr;
+    im[0] = zi;
+    dre[0] = 1;
+    dim[0] = 0;
+    for (int i = 0; i < ops.length; i++) {
+      int d = dst[i];
+      double ar = re[a[i]], ai = im[a[i]], br = re[b[i]], bi = im[b[i]];
+      double dar = dre[a[i]], dai = dim[a[i]], dbr = dre[b[i]], dbi = dim[b[i]];
+      switch (ops[i]) {
+        case ADD:
+          re[d] = ar + br;
+          im[d] = ai + bi;
+          dre[d] = dar + dbr;
+          dim[d] = dai + dbi;
+          break;
+        case SUB:
+          re[d] = ar - br;
+          im[d] = ai - bi;
+          dre[d] = dar - dbr;
+          dim[d] = dai - dbi;
+          break;
+        case MUL:
+          // (uv)' = u'v + uv'
+          re[d] = ar * br - ai * bi;
+          im[d] = ar * bi + ai * br;
+          dre[d] = dar * br - dai * bi + ar * dbr - ai * dbi;
+          dim[d] = dar * bi + dai * br + ar * dbi + ai * dbr;
+          break;
+        case DIV: {
+          // (u/v)' = (u' - (u/v)v') / v
+          double abs2 = br * br + bi * bi;
+          double qr = (ar * br + ai * bi) / abs2;
+          double qi = (ai * br - ar * bi) / abs2;
+          double nr = dar - (qr * dbr - qi * dbi);
+          double ni = dai - (qr * dbi + qi * dbr);
+          re[d] = qr;
+          im[d] = qi;
+          dre[d] = (nr * br + ni * bi) / abs2;
+          dim[d] = (ni * br - nr * bi) / abs2;
+          break;
+        }
+        case POW: {
+          pow(ar, ai, br, bi);
+          double pr = powR, pi = powI;
+          re[d] = pr;
+          im[d] = pi;
+          double tr, ti;
+          if (dbr == 0 && dbi == 0) {
+            // constant power: (u^v)' = v * u^(v-1) * u'
+            if (ar == 0 && ai == 0) {
+              pow(ar, ai, br - 1, bi);
+              tr = powR;
+              ti = powI;
+            } else {
+              double abs2 = ar * ar + ai * ai;
+              tr = (pr * ar + pi * ai) / abs2;
+              ti = (pi * ar - pr * ai) / abs2;
+            }
+            double vr = br * tr - bi * ti;
+            double vi = br * ti + bi * tr;
+            tr = vr;
+            ti = vi;
+          } else {
+            // (u^v)' = u^v * (v' * ln(u) + v * u' / u)
+            double lr = 0.5 * Math.log(ar * ar + ai * ai);
+            double li = Math.atan2(ai, ar);
+            double abs2 = ar * ar + ai * ai;
+            double qr = (dar * ar + dai * ai) / abs2;
+            double qi = (dai * ar - dar * ai) / abs2;
+            double sr = dbr * lr - dbi * li + br * qr - bi * qi;
+            double si = dbr * li + dbi * lr + br * qi + bi * qr;
+            tr = pr * sr - pi * si;
+            ti = pr * si + pi * sr;
+            dar = 1;
+            dai = 0;
+          }
+          dre[d] = tr * dar - ti * dai;
+          dim[d] = tr * dai + ti * dar;
+          break;
+        }
+        case POWI: {
+          // (u^n)' = n * u^(n-1) * u'
+          int n = imm[i];
+          if (n == 0) {
+            re[d] = 1;
+            im[d] = 0;
+            dre[d] = 0;
+            dim[d] = 0;
+            break;
+          }
+          powi(ar, ai, n - 1);
+          double tr = powR, ti = powI;
+          re[d] = tr * ar - ti * ai;
+          im[d] = tr * ai + ti * ar;
+          dre[d] = n * (tr * dar - ti * dai);
+          dim[d] = n * (tr * dai + ti * dar);
+          break;
+        }
+        case HORNER: {
+          // p(w) with w = z^g, so the derivative is p'(w) * g * z^(g-1)
+          int g = imm[i];
+          double wr = zr, wi = zi, dwr = 1, dwi = 0;
+          if (g > 1) {
+            powi(zr, zi, g - 1);
+            dwr = g * powR;
+            dwi = g * powI;
+            wr = powR * zr - powI * zi;
+            wi = powR * zi + powI * zr;
+          }
+          // horner's method on p and p' together
+          double pr = ar, pi = ai, qr = 0, qi = 0;
+          for (int c = a[i] + 1; c <= b[i]; c++) {
+            double t = qr * wr - qi * wi + pr;
+            qi = qr * wi + qi * wr + pi;
+            qr = t;
+            t = pr * wr - pi * wi + re[c];
+            pi = pr * wi + pi * wr + im[c];
+            pr = t;
+          }
+          re[d] = pr;
+          im[d] = pi;
+          dre[d] = qr * dwr - qi * dwi;
+          dim[d] = qr * dwi + qi * dwr;
+          break;
+        }
+        case SIN: {
+          double sr = Math.sin(ar), cr = Math.cos(ar);
+          double ch = Math.cosh(ai), sh = Math.sinh(ai);
+          re[d] = sr * ch;
+          im[d] = cr * sh;
+          // sin' = cos
+          double tr = cr * ch, ti = -sr * sh;
+          dre[d] = tr * dar - ti * dai;
+          dim[d] = tr * dai + ti * dar;
+          break;
+        }
+        case COS: {
+          double sr = Math.sin(ar), cr = Math.cos(ar);
+          double ch = Math.cosh(ai), sh = Math.sinh(ai);
+          re[d] = cr * ch;
+          im[d] = -sr * sh;
+          // cos' = -sin
+          double tr = -sr * ch, ti = -cr * sh;
+          dre[d] = tr * dar - ti * dai;
+          dim[d] = tr * dai + ti * dar;
+          break;
+        }
+        case LN: {
+          // ln' = u' / u
+          double abs2 = ar * ar + ai * ai;
+          re[d] = 0.5 * Math.log(abs2);
+          im[d] = Math.atan2(ai, ar);
+          dre[d] = (dar * ar + dai * ai) / abs2;
+          dim[d] = (dai * ar - dar * ai) / abs2;
+          break;
+        }
+      }
+    }
+    real = re[result];
+    imag = im[result];
+    dreal = dre[result];
+    dimag = dim[result];
+  }
+
+  // exponentiation by squaring, the result is left in powR/powI
+  // k is read unsigned, so that -Integer.MIN_VALUE, which is itself, still counts as 2^31
+  private void powi(double ar, double ai, int n) {
+    double outR = 1, outI = 0;
+    for (int k = n < 0 ? -n : n; k != 0; k >>>= 1) {
+      if ((k & 1) != 0) {
+        double t = outR * ar - outI * ai;
+        outI = outR * ai + outI * ar;
+        outR = t;
+      }
+      double t = ar * ar - ai * ai;
+      ai = 2 * ar * ai;
+      ar = t;
+    }
+    if (n < 0) {
+      double abs2 = outR * outR + outI * outI;
+      outR = outR / abs2;
+      outI = -outI / abs2;
+    }
+    powR = outR;
+    powI = outI;
+  }
+
+  // same branches as Complex.pow(Complex), written out on doubles
+  // the result is left in powR/powI
+  private void pow(double ar, double ai, double br, double bi) {
+    if (bi == 0 && br % 1 == 0) {
+      powi(ar, ai, (int) br);
+      return;
+    }
+    double logAbs = 0.5 * Math.log(ar * ar + ai * ai);
+    double arg = Math.atan2(ai, ar);
+    double abs = Math.exp(br * logAbs - bi * arg);
+    double angle = br * arg + bi * logAbs;
+    powR = abs * Math.cos(angle);
+    powI = abs * Math.sin(angle);
+  }
+
+  public Complex apply(Complex z) {
+    eval(z.real, z.imag);
+    return new Complex(real, imag);
+  }
+
+  public Function<Complex, Complex> f() {
+    return this::apply;
+  }
+}
@@ -1,5 +1,5 @@
 public final class Complex {
-  private static Double TOL = 1e-6;
+  static final double TOL = 1e-6;
 
   public double real, imag;
 
@@ -93,20 +93,25 @@ public final class Complex {
 
   public Complex pow(int x) {
     Complex out = new Complex(1);
+    Complex square = this;
 
-    while (x-- > 0) {
-      out = out.multiply(this);
+    // exponentiation by squaring, with k read unsigned so that -Integer.MIN_VALUE, which is itself, counts as 2^31
+    for (int k = x < 0 ? -x : x; k != 0; k >>>= 1) {
+      if ((k & 1) != 0) {
+        out = out.multiply(square);
+      }
+      square = square.multiply(square);
     }
 
-    return out;
+    return x < 0 ? new Complex(1).divide(out) : out;
   }
 
   public Complex sin() {
-    return new Complex(Math.sin(real) * Math.cosh(imag), Math.cos(real) * Math.sinh(real));
+    return new Complex(Math.sin(real) * Math.cosh(imag), Math.cos(real) * Math.sinh(imag));
   }
 
   public Complex cos() {
-    return new Complex(Math.cos(real) * Math.cosh(imag), -Math.sin(real) * Math.sinh(real));
+    return new Complex(Math.cos(real) * Math.cosh(imag), -Math.sin(real) * Math.sinh(imag));
   }
 
   @Override
@@ -0,0 +1,345 @@
+import java.awt.Color;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// splits a render into tiles of JOB x JOB pixels and hands them out to Worker jvms, then stitches what comes back
+// every tile comes back with its own list of roots, which are looked up in one RootRegistry for the whole image,
+// so a root found by several workers ends up as one root with one hue
+// a worker that fails, or takes longer than -Dnewton.worker.timeout seconds to send back a tile, has its
+// unfinished tiles handed to the others
+public final class Coordinator {
+  static final int JOB = 256;
+  // tiles sent to a worker before the first one comes back, so it doesn't sit idle waiting for the next
+  private static final int AHEAD = 2;
+  static final long TIMEOUT_MILLIS = Long.getLong("newton.worker.timeout", 120L) * 1000;
+  // kills local workers that miss their deadline, a pipe can't time out a read the way a socket can
+  private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread t = new Thread(runnable, "Newton Fractal: Worker watchdog");
+    t.setDaemon(true);
+    return t;
+  });
+
+  // one worker jvm, started here or reached over a socket
+  private static final class Connection {
+    final String name;
+    final Process process;
+    final Socket socket;
+    final DataInputStream in;
+    final DataOutputStream out;
+
+    Connection(String name, Process process, Socket socket) throws IOException {
+      this.name = name;
+      this.process = process;
+      this.socket = socket;
+      if (socket != null) {
+        socket.setSoTimeout((int) TIMEOUT_MILLIS);
+      }
+      this.in = new DataInputStream(new BufferedInputStream(
+          process != null ? process.getInputStream() : socket.getInputStream()));
+      this.out = new DataOutputStream(new BufferedOutputStream(
+          process != null ? process.getOutputStream() : socket.getOutputStream()));
+    }
+
+    // a worker that failed may be hung, so it is killed or hung up on rather than asked to quit
+    void kill() {
+      if (socket != null) {
+        try {
+          socket.close();
+        } catch (IOException e) {
+          // nothing left to do with it
+        }
+      } else {
+        process.destroyForcibly();
+      }
+    }
+
+    void close() {
+      try {
+        out.writeInt(Worker.QUIT);
+        out.flush();
+      } catch (IOException e) {
+        // it's already gone
+      }
+      try {
+        if (socket != null) {
+          socket.close();
+        } else {
+          out.close();
+          process.waitFor();
+        }
+      } catch (IOException e) {
+        // nothing left to do with it
+      } catch (InterruptedException e) {
+        process.destroy();
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  final String eq;
+  final Newton.Derivative derivative;
+  Method method = Method.NEWTON;
+  final int width, height, maxiter;
+  final double minX, minY, incrementX, incrementY;
+  boolean useRoots;
+  int spread = -1;
+
+  // indexed like Renderer's, filled in as tiles come back
+  public final short[] root;
+  public final int[] iter;
+  public final ArrayList<Complex> roots = new ArrayList<>();
+  final RootRegistry registry = new RootRegistry();
+
+  private final ArrayList<Connection> workers = new ArrayList<>();
+  private final ConcurrentLinkedQueue<int[]> tiles = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger remaining = new AtomicInteger();
+  // set by useMetrics
+  private RenderMetrics metrics;
+
+  public Coordinator(String eq, Newton.Derivative derivative, int width, int height, int maxiter, double minX,
+      double minY, double incrementX, double incrementY) {
+    this.eq = eq;
+    this.derivative = derivative;
+    this.width = width;
+    this.height = height;
+    this.maxiter = maxiter;
+    this.minX = minX;
+    this.minY = minY;
+    this.incrementX = incrementX;
+    this.incrementY = incrementY;
+    this.root = new short[width * height];
+    this.iter = new int[width * height];
+  }
+
+  // see Newton.useMethod, done by each worker
+  public void useMethod(Method method) {
+    this.method = method;
+  }
+
+  // see Newton.useRoots, done by each worker
+  public void useRoots(boolean useRoots) {
+    this.useRoots = useRoots;
+  }
+
+  // see Renderer.useFill, done by each worker on its tiles
+  public void useFill(int spread) {
+    this.spread = spread;
+  }
+
+  // records how long each tile took from being sent to coming back, and the orbits the workers gave up on
+  public void useMetrics(RenderMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  // starts count worker jvms on this machine with the same java and classpath, talking over stdin and stdout
+  public void launch(int count, int threads) throws IOException {
+    String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+    for (int i = 0; i < count; i++) {
+      List<String> command = new ArrayList<>();
+      command.add(java);
+      command.add("-cp");
+      command.add(System.getProperty("java.class.path"));
+      command.add("-Dnewton.threads=" + threads);
+      if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+        command.add("--add-modules");
+        command.add("jdk.incubator.vector");
+      }
+      command.add("Worker");
+      Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+      workers.add(new Connection("local worker " + (i + 1), process, null));
+    }
+  }
+
+  // a worker started with java Worker <port>
+  public void connect(String host, int port) throws IOException {
+    workers.add(new Connection(host + ":" + port, null, new Socket(host, port)));
+  }
+
+  // adds workers from a list like "4" for four local jvms or "host:5000,host2:5000", or both
+  public void addWorkers(String spec, int threads) throws IOException {
+    for (String worker : spec.split(",")) {
+      worker = worker.trim();
+      int colon = worker.lastIndexOf(':');
+      if (colon == -1) {
+        int count = Integer.parseInt(worker);
+        launch(count, Math.max(1, threads / count));
+      } else {
+        connect(worker.substring(0, colon), Integer.parseInt(worker.substring(colon + 1)));
+      }
+    }
+  }
+
+  public void render() {
+    if (workers.isEmpty()) {
+      throw new RuntimeException("No workers to render with");
+    }
+    for (int y = 0; y < height; y += JOB) {
+      for (int x = 0; x < width; x += JOB) {
+        tiles.add(new int[] { x, y, Math.min(x + JOB, width), Math.min(y + JOB, height) });
+        remaining.incrementAndGet();
+      }
+    }
+    // tiles a failed worker gave back may be left once the others have run out, so go round again
+    ArrayList<Connection> alive = new ArrayList<>(workers);
+    while (remaining.get() > 0) {
+      if (alive.isEmpty()) {
+        throw new RuntimeException("Every worker failed with " + remaining.get() + " tiles left");
+      }
+      ArrayList<Thread> threads = new ArrayList<>();
+      ArrayList<Connection> failed = new ArrayList<>();
+      for (Connection worker : alive) {
+        Thread thread = new Thread(() -> {
+          if (!feed(worker)) {
+            synchronized (failed) {
+              failed.add(worker);
+            }
+          }
+        }, "Newton Fractal: " + worker.name);
+        thread.start();
+        threads.add(thread);
+      }
+      for (Thread thread : threads) {
+        try {
+          thread.join();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException(e);
+        }
+      }
+      for (Connection worker : failed) {
+        worker.kill();
+      }
+      alive.removeAll(failed);
+    }
+    for (Connection worker : workers) {
+      worker.close();
+    }
+    workers.clear();
+    cluster();
+  }
+
+  // sends the worker tiles until there are none left, returns false if it failed
+  private boolean feed(Connection worker) {
+    ArrayDeque<int[]> sent = new ArrayDeque<>();
+    ArrayDeque<Long> sentAt = new ArrayDeque<>();
+    try {
+      worker.out.writeInt(Worker.RENDER);
+      worker.out.writeUTF(eq);
+      worker.out.writeUTF(derivative.name());
+      worker.out.writeUTF(method.toString());
+      worker.out.writeBoolean(useRoots);
+      worker.out.writeInt(spread);
+      worker.out.writeInt(maxiter);
+      worker.out.writeDouble(minX);
+      worker.out.writeDouble(minY);
+      worker.out.writeDouble(incrementX);
+      worker.out.writeDouble(incrementY);
+      while (true) {
+        int[] tile;
+        while (sent.size() < AHEAD && (tile = tiles.poll()) != null) {
+          worker.out.writeInt(Worker.TILE);
+          for (int v : tile) {
+            worker.out.writeInt(v);
+          }
+          sent.add(tile);
+          sentAt.add(System.nanoTime());
+        }
+        worker.out.flush();
+        if (sent.isEmpty()) {
+          return true;
+        }
+        long[] stopped;
+        // reads from a socket time out by themselves
+        ScheduledFuture<?> deadline = worker.process == null ? null
+            : WATCHDOG.schedule(worker.process::destroyForcibly, TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        try {
+          stopped = stitch(sent.peek(), worker.in);
+        } finally {
+          if (deadline != null) {
+            deadline.cancel(false);
+          }
+        }
+        sent.remove();
+        long start = sentAt.remove();
+        if (metrics != null) {
+          metrics.tile(System.nanoTime() - start, registry.size(), stopped[0], stopped[1]);
+        }
+        remaining.decrementAndGet();
+      }
+    } catch (IOException | RuntimeException e) {
+      System.err.println(worker.name + " failed, handing its tiles to the others: " + e);
+      tiles.addAll(sent);
+      return false;
+    }
+  }
+
+  // copies a tile into place, with its roots swapped for their ids in the registry
+  // returns how many of the tile's orbits diverged and how many went round a cycle
+  private long[] stitch(int[] tile, DataInputStream in) throws IOException {
+    int x0 = tile[0], y0 = tile[1], x1 = tile[2], y1 = tile[3];
+    int n = in.readInt();
+    short[] ids = new short[n];
+    for (int k = 0; k < n; k++) {
+      RootRegistry.Root found = registry.find(in.readDouble(), in.readDouble());
+      if (found.id > Short.MAX_VALUE) {
+        throw new RuntimeException("More than " + (Short.MAX_VALUE + 1) + " roots in one image");
+      }
+      ids[k] = (short) found.id;
+    }
+    for (int y = y0; y < y1; y++) {
+      for (int x = x0; x < x1; x++) {
+        short k = in.readShort();
+        root[y * width + x] = k == -1 ? -1 : ids[k];
+      }
+    }
+    for (int y = y0; y < y1; y++) {
+      for (int x = x0; x < x1; x++) {
+        iter[y * width + x] = in.readInt();
+      }
+    }
+    return new long[] { in.readLong(), in.readLong() };
+  }
+
+  // swaps the registry ids for the sorted indices, like Renderer does
+  private void cluster() {
+    int[] order = registry.order();
+    for (int i = 0; i < root.length; i++) {
+      if (root[i] != -1) {
+        root[i] = (short) order[root[i]];
+      }
+    }
+    roots.clear();
+    roots.addAll(registry.roots());
+  }
+
+  // colours the image like Renderer.image and streams it out as a png a row at a time
+  public void write(double grayscale, double maxiter, OutputStream out) throws IOException {
+    float[] shades = Renderer.shades(this.maxiter, grayscale, maxiter);
+    int[] row = new int[width];
+    try (PngWriter png = new PngWriter(out, width, height)) {
+      for (int y = 0; y < height; y++) {
+        for (int x = 0; x < width; x++) {
+          int i = y * width + x;
+          float hue = root[i] == -1 ? 0 : (float) root[i] / (float) roots.size();
+          row[x] = Color.HSBtoRGB(hue, 1, shades[iter[i]]);
+        }
+        png.write(row, 0, 1);
+      }
+    }
+  }
+}
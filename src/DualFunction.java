@@ -0,0 +1,5 @@
+// f(z) and f'(z) in one call, like CompiledEquation.evalDual but written to out as { re, im, dre, dim }
+// implemented by the classes BytecodeCompiler generates
+public interface DualFunction {
+  void evalDual(double zr, double zi, double[] out);
+}
@@ -1,5 +1,7 @@
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Stack;
 import java.util.function.Function;
@@ -11,10 +13,11 @@ import java.util.stream.Collectors;
 public class Equation {
   public static Function<Complex, Complex> poly(Double... coeffs) {
     return (n) -> {
+      // horner's method, coeffs[0] * n^j + ... = (coeffs[0] * n + coeffs[1]) * n + ...
       Complex out = new Complex(0, 0);
 
-      for (int i = 0, j = coeffs.length - 1; i < coeffs.length; i++, j--) {
-        out = out.add(n.pow(j).multiply(coeffs[i]));
+      for (int i = 0; i < coeffs.length; i++) {
+        out = out.multiply(n).add(new Complex(coeffs[i]));
       }
 
       return out;
@@ -195,6 +198,27 @@ public class Equation {
     }
   }
 
+  // like toString but with constants written out in full, so two equations only match if they are the same
+  public String canonical() {
+    if (type == Type.CONSTANT) {
+      return "Eq(" + data.real + "," + data.imag + ")";
+    } else if (type == Type.STR || type == Type.VAR) {
+      return toString();
+    }
+    String[] argStrings = new String[args.length];
+    for (int i = 0; i < args.length; i++) {
+      argStrings[i] = args[i].canonical();
+    }
+    return "Eq(" + type + "," + Arrays.toString(argStrings) + ")";
+  }
+
+  // (1-t)*a + t*b, which sweeps each coefficient of one polynomial to the other's as t goes from 0 to 1
+  public static Equation lerp(Equation a, Equation b, double t) {
+    Equation from = new Equation(Type.MUL, new Equation(new Complex(1 - t)), a);
+    Equation to = new Equation(Type.MUL, new Equation(new Complex(t)), b);
+    return new Equation(Type.ADD, from, to).simplify();
+  }
+
   public Complex apply(Complex z) {
     List<Complex> temp = Arrays.stream(args)
         .collect(Collectors.mapping((Equation eq) -> eq.apply(z), Collectors.toList()));
@@ -215,11 +239,11 @@ public class Equation {
       case SUB:
         return zs.get(0).sub(zs.get(1));
       case COS:
-        return z.cos();
+        return zs.get(0).cos();
       case SIN:
-        return z.sin();
+        return zs.get(0).sin();
       case LN:
-        return z.ln();
+        return zs.get(0).ln();
       default:
         throw new RuntimeException("Not yet implemented " + type);
     }
@@ -229,10 +253,193 @@ public class Equation {
     return this::apply;
   }
 
+  // coefficients of this as a polynomial in z, highest power first like poly() and diff(),
+  // or null if it isn't a polynomial
+  public Complex[] coefficients() {
+    return coefficients(new IdentityHashMap<>());
+  }
+
+  // done holds the coefficients of every node seen so far, null for the ones that aren't polynomials,
+  // so a subtree shared by simplify() is only multiplied out once
+  private Complex[] coefficients(IdentityHashMap<Equation, Complex[]> done) {
+    if (done.containsKey(this)) {
+      return done.get(this);
+    }
+    Complex[] out;
+    switch (type) {
+      case VAR:
+      case CONSTANT:
+        out = combine(type, data, null, null);
+        break;
+      case ADD:
+      case SUB:
+      case MUL:
+      case DIV:
+      case POW:
+        out = combine(type, data, args[0].coefficients(done), args[1].coefficients(done));
+        break;
+      default:
+        out = null;
+        break;
+    }
+    done.put(this, out);
+    return out;
+  }
+
+  // coefficients of a node from the coefficients of its arguments, null if it isn't a polynomial
+  private static Complex[] combine(Type type, Complex data, Complex[] a, Complex[] b) {
+    switch (type) {
+      case VAR:
+        return new Complex[] { new Complex(1d), new Complex(0d) };
+      case CONSTANT:
+        return new Complex[] { data };
+      case ADD:
+      case SUB:
+      case MUL:
+      case DIV:
+      case POW: {
+        if (a == null || b == null)
+          return null;
+        if (type == Type.ADD)
+          return Polynomial.add(a, b);
+        if (type == Type.SUB)
+          return Polynomial.sub(a, b);
+        if (type == Type.MUL) {
+          a = Polynomial.trim(a);
+          b = Polynomial.trim(b);
+          return a.length + b.length - 2 > Polynomial.MAX_DEGREE ? null : Polynomial.multiply(a, b);
+        }
+        // dividing and raising to a power only stay polynomials for constant divisors and natural powers
+        if (b.length != 1)
+          return null;
+        if (type == Type.DIV)
+          return b[0].abs2() == 0 ? null : Polynomial.scale(a, new Complex(1d).divide(b[0]));
+        if (b[0].imag != 0 || b[0].real < 0 || b[0].real % 1 != 0)
+          return null;
+        // past MAX_DEGREE, or a power too big for an int, the node stays a power, constants are folded by simplify
+        a = Polynomial.trim(a);
+        if ((a.length - 1) * b[0].real > Polynomial.MAX_DEGREE || b[0].real > Integer.MAX_VALUE)
+          return null;
+        return Polynomial.pow(a, (int) b[0].real);
+      }
+      default:
+        return null;
+    }
+  }
+
+  // lowers the tree into a flat list of instructions, see CompiledEquation
+  public CompiledEquation compile() {
+    return compile(true);
+  }
+
+  // fastPaths turns polynomial subtrees into horner's method and integer powers into exponentiation by squaring,
+  // without it every node becomes one instruction
+  // a node that appears more than once in the tree (simplify() shares identical subtrees) is only emitted once
+  CompiledEquation compile(boolean fastPaths) {
+    ArrayList<Complex> registers = new ArrayList<>();
+    ArrayList<int[]> code = new ArrayList<>();
+    // register 0 is z
+    registers.add(null);
+    int result = emit(registers, code, fastPaths, new IdentityHashMap<>(), new IdentityHashMap<>());
+    return new CompiledEquation(registers, code, result);
+  }
+
+  // polys holds the coefficients worked out so far, so every node is only checked for a polynomial once
+  private int emit(ArrayList<Complex> registers, ArrayList<int[]> code, boolean fastPaths,
+      IdentityHashMap<Equation, Integer> emitted, IdentityHashMap<Equation, Complex[]> polys) {
+    Integer done = emitted.get(this);
+    if (done != null) {
+      return done;
+    }
+    int register = emitNode(registers, code, fastPaths, emitted, polys);
+    emitted.put(this, register);
+    return register;
+  }
+
+  private int emitNode(ArrayList<Complex> registers, ArrayList<int[]> code, boolean fastPaths,
+      IdentityHashMap<Equation, Integer> emitted, IdentityHashMap<Equation, Complex[]> polys) {
+    switch (type) {
+      case VAR:
+        return 0;
+      case CONSTANT:
+        registers.add(data);
+        return registers.size() - 1;
+      case STR:
+        throw new RuntimeException("Not yet implemented " + type);
+      default:
+        break;
+    }
+    if (fastPaths) {
+      Complex[] coeffs = coefficients(polys);
+      if (coeffs != null) {
+        return emitHorner(Polynomial.trim(coeffs), registers, code);
+      }
+      if (type == Type.POW && args[1].type == Type.CONSTANT && args[1].data.imag == 0
+          && args[1].data.real % 1 == 0) {
+        int a = args[0].emit(registers, code, fastPaths, emitted, polys);
+        registers.add(null);
+        int dst = registers.size() - 1;
+        code.add(new int[] { CompiledEquation.POWI, dst, a, a, (int) args[1].data.real });
+        return dst;
+      }
+    }
+    int a = args[0].emit(registers, code, fastPaths, emitted, polys);
+    int b = args.length > 1 ? args[1].emit(registers, code, fastPaths, emitted, polys) : a;
+    registers.add(null);
+    int dst = registers.size() - 1;
+    code.add(new int[] { CompiledEquation.opcode(type), dst, a, b, 0 });
+    return dst;
+  }
+
+  private static int emitHorner(Complex[] coeffs, ArrayList<Complex> registers, ArrayList<int[]> code) {
+    int degree = coeffs.length - 1;
+    if (degree == 0) {
+      // constant subtree
+      registers.add(coeffs[0]);
+      return registers.size() - 1;
+    }
+    // when every power in use is a multiple of g, evaluate a polynomial in w = z^g instead,
+    // so z^8 + 15z^4 - 16 becomes w^2 + 15w - 16 with w = z^4
+    int g = 0;
+    for (int i = 0; i < degree; i++) {
+      if (coeffs[i].abs2() != 0) {
+        g = gcd(g, degree - i);
+      }
+    }
+    int first = registers.size();
+    for (int i = 0; i <= degree; i += g) {
+      registers.add(coeffs[i]);
+    }
+    int last = registers.size() - 1;
+    registers.add(null);
+    int dst = registers.size() - 1;
+    code.add(new int[] { CompiledEquation.HORNER, dst, first, last, g });
+    return dst;
+  }
+
+  private static int gcd(int a, int b) {
+    return b == 0 ? a : gcd(b, a % b);
+  }
+
   public Equation derivative() {
-    List<Equation> temp = Arrays.stream(args)
-        .collect(Collectors.mapping((Equation eq) -> eq.derivative(), Collectors.toList()));
-    ArrayList<Equation> ds = (ArrayList<Equation>) temp;
+    return derivative(new IdentityHashMap<>());
+  }
+
+  // done holds the derivative of every node seen so far, so a subtree shared by simplify() is only differentiated once
+  private Equation derivative(IdentityHashMap<Equation, Equation> done) {
+    Equation out = done.get(this);
+    if (out == null) {
+      out = derivativeNode(done);
+      done.put(this, out);
+    }
+    return out;
+  }
+
+  private Equation derivativeNode(IdentityHashMap<Equation, Equation> done) {
+    ArrayList<Equation> ds = new ArrayList<>();
+    for (Equation arg : args) {
+      ds.add(arg.derivative(done));
+    }
     switch (type) {
       case VAR:
         // d/dz (z) = 1
@@ -241,6 +448,12 @@ public class Equation {
         // d/dz (a) = 0
         return new Equation(new Complex(0d));
       case POW: {
+        if (args[1].type == Type.CONSTANT) {
+          // d/dz (f(z)^n) = n * f(z)^(n-1) * f'(z), without the ln(f(z)) of the general case
+          Equation power = new Equation(Type.POW, args[0], new Equation(args[1].data.sub(1d)));
+          Equation first = new Equation(Type.MUL, new Equation(args[1].data), power);
+          return new Equation(Type.MUL, first, ds.get(0));
+        }
         // d/dz (f(z)^g(z)) = (f(z)^g(z)) * ((g'(x)*ln(f(x))) + g(x)*f'(x)/f(x))
         Equation first = this;
         Equation second_first = new Equation(Type.MUL, ds.get(1), new Equation(Type.LN, args[0]));
@@ -291,98 +504,267 @@ public class Equation {
     }
   }
 
+  // an equal but smaller tree: polynomial subtrees (natural constant powers included) are multiplied out into
+  // a sum of c*z^k terms, other constant subtrees are folded, x*1, x+0, x^1 and the like are dropped, and
+  // identical subtrees become one shared node, so the result is a dag that compile() evaluates each node of once
   public Equation simplify() {
-    Equation[] simple_args = new Equation[args.length];
-    for (int i = 0; i < this.args.length; i++) {
-      simple_args[i] = this.args[i].simplify();
-    }
-    if (this.type == Type.POW) {
-      if (simple_args[1].type == Type.CONSTANT) {
-        if (simple_args[1].data.equals(new Complex(0d))) {
-          // z^0 = 1
-          return new Equation(new Complex(1d));
-        }
-        if (simple_args[1].data.equals(new Complex(1d))) {
-          // z^1 = z
-          return simple_args[0];
-        }
-        if (simple_args[0].type == Type.CONSTANT) {
-          return new Equation(simple_args[0].data.pow(simple_args[1].data));
-        }
+    Nodes nodes = new Nodes();
+    return nodes.expand(nodes.simplify(this));
+  }
+
+  // the hash consing table simplify() builds its dag in
+  private static final class Nodes {
+    // every node by its type and the ids of its arguments, or by the exact bits of its constant
+    private final HashMap<String, Equation> table = new HashMap<>();
+    private final IdentityHashMap<Equation, Integer> ids = new IdentityHashMap<>();
+    // coefficients of the nodes in the table that are polynomials
+    private final IdentityHashMap<Equation, Complex[]> polys = new IdentityHashMap<>();
+    // simplified node for every input node, derivative() shares subtrees of its input too
+    private final IdentityHashMap<Equation, Equation> done = new IdentityHashMap<>();
+    // the c*z^k sum for every polynomial node expand() has multiplied out
+    private final IdentityHashMap<Equation, Equation> expanded = new IdentityHashMap<>();
+
+    Equation simplify(Equation eq) {
+      Equation out = done.get(eq);
+      if (out == null) {
+        out = rewrite(eq);
+        done.put(eq, out);
       }
+      return out;
     }
-    // MUL, DIV
-    if (this.type == Type.MUL) {
-      if (simple_args[1].type == Type.CONSTANT) {
-        if (simple_args[1].data.equals(new Complex(0d))) {
-          // z*0 = 0
-          return new Equation(new Complex(0d));
-        }
-        if (simple_args[1].data.equals(new Complex(1d))) {
-          // z*1 = z
-          return simple_args[0];
-        }
-        if (simple_args[0].type == Type.CONSTANT) {
-          return new Equation(simple_args[0].data.multiply(simple_args[1].data));
-        }
+
+    private Equation rewrite(Equation eq) {
+      switch (eq.type) {
+        case CONSTANT:
+          return constant(eq.data);
+        case VAR:
+        case STR:
+          return intern(eq);
+        default:
+          break;
       }
+      Equation[] args = new Equation[eq.args.length];
+      for (int i = 0; i < args.length; i++) {
+        args[i] = simplify(eq.args[i]);
+      }
+      return node(eq.type, args);
     }
-    if (this.type == Type.DIV) {
-      if (simple_args[0].type == Type.CONSTANT) {
-        if (simple_args[0].data.equals(new Complex(0d))) {
-          // 0/z = 0
-          return new Equation(new Complex(0d));
-        }
-        if (simple_args[1].type == Type.CONSTANT) {
-          return new Equation(simple_args[0].data.divide(simple_args[1].data));
-        }
+
+    // the simplest node of this type over already simplified arguments
+    // a polynomial is only multiplied out by expand() once the node above it isn't part of it, doing it at every
+    // level would rebuild each partial sum of a long sum of terms
+    private Equation node(Type type, Equation... args) {
+      Complex[] coeffs = combine(type, null, polys.get(args[0]), args.length > 1 ? polys.get(args[1]) : null);
+      if (coeffs != null) {
+        return intern(new Equation(type, args));
       }
-      if (simple_args[1].type == Type.CONSTANT) {
-        if (simple_args[1].data.equals(new Complex(1d))) {
-          // z/1 = z
-          return simple_args[0];
-        }
+      for (int i = 0; i < args.length; i++) {
+        args[i] = expand(args[i]);
+      }
+      boolean constant = true;
+      for (Equation arg : args) {
+        constant &= arg.type == Type.CONSTANT;
+      }
+      if (constant) {
+        return constant(new Equation(type, args).apply(null));
+      }
+      Equation a = args[0], b = args.length > 1 ? args[1] : null;
+      switch (type) {
+        case ADD:
+          if (before(b, a)) {
+            return node(type, b, a);
+          }
+          if (a == b) {
+            // z+z = 2*z
+            return node(Type.MUL, constant(new Complex(2d)), a);
+          }
+          // 0+z = z
+          return isZero(a) ? b : intern(new Equation(type, a, b));
+        case SUB:
+          if (isZero(b)) {
+            // z-0 = z
+            return a;
+          }
+          // z-z = 0
+          return a == b ? constant(new Complex(0d)) : intern(new Equation(type, a, b));
+        case MUL:
+          if (before(b, a)) {
+            return node(type, b, a);
+          }
+          if (isZero(a)) {
+            // 0*z = 0
+            return a;
+          }
+          if (isOne(a)) {
+            // 1*z = z
+            return b;
+          }
+          if (a.type == Type.CONSTANT && b.type == Type.MUL && b.args[0].type == Type.CONSTANT) {
+            // a*(b*z) = (a*b)*z
+            return node(type, constant(a.data.multiply(b.args[0].data)), b.args[1]);
+          }
+          return intern(new Equation(type, a, b));
+        case DIV:
+          // 0/z = 0, z/1 = z
+          return isZero(a) ? a : isOne(b) ? a : intern(new Equation(type, a, b));
+        case POW:
+          if (isZero(b)) {
+            // z^0 = 1
+            return constant(new Complex(1d));
+          }
+          if (isOne(b)) {
+            // z^1 = z
+            return a;
+          }
+          if (isInteger(b) && a.type == Type.POW && a.args[1].type == Type.CONSTANT) {
+            // (z^a)^n = z^(a*n) for whole n
+            return node(type, a.args[0], constant(a.args[1].data.multiply(b.data)));
+          }
+          return intern(new Equation(type, a, b));
+        default:
+          return intern(new Equation(type, args));
       }
     }
-    if (this.type == Type.ADD) {
-      if (simple_args[0].type == Type.CONSTANT) {
-        if (simple_args[0].data.equals(new Complex(0d))) {
-          // 0+z=z
-          return simple_args[1];
+
+    // a polynomial node multiplied out into a sum of c*z^k terms, other nodes as they are
+    Equation expand(Equation eq) {
+      Complex[] coeffs = polys.get(eq);
+      if (coeffs == null) {
+        return eq;
+      }
+      Equation out = expanded.get(eq);
+      if (out == null) {
+        out = polynomial(Polynomial.trim(coeffs));
+        expanded.put(eq, out);
+        expanded.put(out, out);
+      }
+      return out;
+    }
+
+    // c[0]*z^n + c[1]*z^(n-1) + ... + c[n], leaving out zero terms and coefficients of one
+    private Equation polynomial(Complex[] coeffs) {
+      int degree = coeffs.length - 1;
+      Equation sum = null;
+      for (int i = 0; i <= degree; i++) {
+        Complex c = coeffs[i];
+        int k = degree - i;
+        if (sum != null && c.real == 0 && c.imag == 0) {
+          continue;
         }
-        if (simple_args[1].type == Type.CONSTANT) {
-          return new Equation(simple_args[0].data.add(simple_args[1].data));
+        Equation term;
+        if (k == 0) {
+          term = constant(c);
+        } else {
+          Equation power = intern(new Equation(Type.VAR));
+          if (k > 1) {
+            power = intern(new Equation(Type.POW, power, constant(new Complex((double) k))));
+          }
+          term = c.real == 1 && c.imag == 0 ? power : intern(new Equation(Type.MUL, constant(c), power));
         }
+        sum = sum == null ? term : intern(new Equation(Type.ADD, sum, term));
       }
-      if (simple_args[1].type == Type.CONSTANT) {
-        if (simple_args[1].data.equals(new Complex(0d))) {
-          // z+0=z
-          return simple_args[0];
+      return sum;
+    }
+
+    private Equation constant(Complex c) {
+      return intern(new Equation(c));
+    }
+
+    // the node already in the table that matches eq, or eq after adding it
+    private Equation intern(Equation eq) {
+      String key;
+      if (eq.type == Type.CONSTANT) {
+        key = Double.doubleToLongBits(eq.data.real) + "," + Double.doubleToLongBits(eq.data.imag);
+      } else if (eq.type == Type.STR) {
+        key = eq.token;
+      } else {
+        StringBuilder builder = new StringBuilder(eq.type.name());
+        for (Equation arg : eq.args) {
+          builder.append(',').append(ids.get(arg));
         }
+        key = builder.toString();
+      }
+      Equation existing = table.get(key);
+      if (existing != null) {
+        return existing;
       }
+      table.put(key, eq);
+      ids.put(eq, ids.size());
+      Complex[] a = eq.args.length > 0 ? polys.get(eq.args[0]) : null;
+      Complex[] b = eq.args.length > 1 ? polys.get(eq.args[1]) : null;
+      Complex[] coeffs = combine(eq.type, eq.data, a, b);
+      if (coeffs != null) {
+        polys.put(eq, coeffs);
+      }
+      return eq;
     }
-    if (this.type == Type.SUB) {
-      if (simple_args[0].type == Type.CONSTANT) {
-        if (simple_args[1].type == Type.CONSTANT) {
-          return new Equation(simple_args[0].data.sub(simple_args[1].data));
-        }
+
+    // order of the arguments of + and *, constants first and then whichever node came first
+    private boolean before(Equation x, Equation y) {
+      if (x.type == Type.CONSTANT || y.type == Type.CONSTANT) {
+        return x.type == Type.CONSTANT && y.type != Type.CONSTANT;
       }
-      if (simple_args[1].type == Type.CONSTANT) {
-        if (simple_args[1].data.equals(new Complex(0d))) {
-          // z-0=z
-          return simple_args[0];
-        }
+      return ids.get(x) < ids.get(y);
+    }
+
+    // exact comparisons, unlike Complex.equals
+    private static boolean isZero(Equation eq) {
+      return eq.type == Type.CONSTANT && eq.data.real == 0 && eq.data.imag == 0;
+    }
+
+    private static boolean isOne(Equation eq) {
+      return eq.type == Type.CONSTANT && eq.data.real == 1 && eq.data.imag == 0;
+    }
+
+    private static boolean isInteger(Equation eq) {
+      return eq.type == Type.CONSTANT && eq.data.imag == 0 && eq.data.real % 1 == 0;
+    }
+  }
+
+  // distinct nodes, counting a shared subtree once
+  public int nodes() {
+    IdentityHashMap<Equation, Boolean> seen = new IdentityHashMap<>();
+    ArrayList<Equation> stack = new ArrayList<>();
+    stack.add(this);
+    while (!stack.isEmpty()) {
+      Equation eq = stack.remove(stack.size() - 1);
+      if (seen.put(eq, true) == null) {
+        stack.addAll(Arrays.asList(eq.args));
+      }
+    }
+    return seen.size();
+  }
+
+  // nodes as a tree, counting a shared subtree every time it appears
+  public long treeNodes() {
+    return treeNodes(new IdentityHashMap<>());
+  }
+
+  private long treeNodes(IdentityHashMap<Equation, Long> done) {
+    Long count = done.get(this);
+    if (count == null) {
+      count = 1L;
+      for (Equation arg : args) {
+        count += arg.treeNodes(done);
       }
+      done.put(this, count);
     }
-    return this;
+    return count;
   }
 
+  // how much simplify() shrinks f and f', e.g. Equation "z^8+15z^4-16"
   public static void main(String[] args) {
-    Equation poly = Equation.parse("3z").simplify();
-    Equation derivative = poly.derivative().simplify();
-    System.out.println(poly.toString());
-    System.out.println(poly.f().apply(new Complex(3d, 1d)));
-    System.out.println(derivative);
-    System.out.println(derivative.f().apply(new Complex(3d)));
+    String eq_s = args.length > 0 ? args[0] : "z^8+15z^4-16";
+    Equation parsed = Equation.parse(eq_s);
+    Equation simplified = parsed.simplify();
+    report("f", parsed, simplified);
+    report("f'", parsed.derivative(), simplified.derivative().simplify());
+  }
+
+  private static void report(String name, Equation before, Equation after) {
+    System.out.println(name + ": " + before.treeNodes() + " nodes before, " + after.nodes() + " after ("
+        + after.treeNodes() + " as a tree), " + before.compile(false).ops.length + " -> "
+        + after.compile(false).ops.length + " instructions without fast paths");
+    System.out.println("  " + after);
   }
 }
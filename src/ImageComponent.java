@@ -1,9 +1,14 @@
 import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
 
 import javax.swing.JPanel;
 
 public class ImageComponent extends JPanel {
   int width, height;
+  BufferedImage image;
+  // where the image is drawn, moved while it is being dragged
+  int offsetX, offsetY;
 
   public ImageComponent(int width, int height) {
     this.changeSize(width, height);
@@ -17,4 +22,26 @@ public class ImageComponent extends JPanel {
     setSize(new Dimension(width, height));
     setPreferredSize(new Dimension(width, height));
   }
+
+  // the renderer writes into the image's pixels, so this only needs to be set once
+  public void setImage(BufferedImage image) {
+    this.image = image;
+    this.offsetX = 0;
+    this.offsetY = 0;
+    repaint();
+  }
+
+  public void setOffset(int offsetX, int offsetY) {
+    this.offsetX = offsetX;
+    this.offsetY = offsetY;
+    repaint();
+  }
+
+  @Override
+  protected void paintComponent(Graphics g) {
+    super.paintComponent(g);
+    if (image != null) {
+      g.drawImage(image, offsetX, offsetY, null);
+    }
+  }
 }
@@ -0,0 +1,157 @@
+// how an iteration gets from x to the next x given f, f' and f'' there, see Newton.useMethod
+// every method is a correction to newton's step u = f/f' by t = f f''/f'^2, so they all share one evaluation:
+//   NEWTON        x - u
+//   RELAXED:a     x - a u, a complex damping factor written re or re,im, which moves and blurs the basins
+//   HALLEY        x - u / (1 - t/2), cubic convergence
+//   HOUSEHOLDER   x - u (1 + t/2), the third order householder step fractal programs use, also cubic
+//   SCHRODER      x - u / (1 - t), quadratic even on multiple roots where newton only converges linearly
+// the step is written to out so nothing allocates per pixel
+public interface Method {
+  // whether step reads f'', which costs a second pass over the derivative, see Newton.useMethod
+  boolean second();
+
+  // writes the step to subtract from x into out[0], out[1]
+  // ur/ui is u = f/f' and vr/vi is f''/f', only worked out if second()
+  void step(double ur, double ui, double vr, double vi, double[] out);
+
+  Method NEWTON = new Method() {
+    @Override
+    public boolean second() {
+      return false;
+    }
+
+    @Override
+    public void step(double ur, double ui, double vr, double vi, double[] out) {
+      out[0] = ur;
+      out[1] = ui;
+    }
+
+    @Override
+    public String toString() {
+      return "NEWTON";
+    }
+  };
+
+  Method HALLEY = new Method() {
+    @Override
+    public boolean second() {
+      return true;
+    }
+
+    @Override
+    public void step(double ur, double ui, double vr, double vi, double[] out) {
+      // u / (1 - u v / 2)
+      divide(ur, ui, 1 - (ur * vr - ui * vi) / 2, -(ur * vi + ui * vr) / 2, out);
+    }
+
+    @Override
+    public String toString() {
+      return "HALLEY";
+    }
+  };
+
+  Method HOUSEHOLDER = new Method() {
+    @Override
+    public boolean second() {
+      return true;
+    }
+
+    @Override
+    public void step(double ur, double ui, double vr, double vi, double[] out) {
+      // u (1 + u v / 2)
+      double cr = 1 + (ur * vr - ui * vi) / 2, ci = (ur * vi + ui * vr) / 2;
+      out[0] = ur * cr - ui * ci;
+      out[1] = ur * ci + ui * cr;
+    }
+
+    @Override
+    public String toString() {
+      return "HOUSEHOLDER";
+    }
+  };
+
+  Method SCHRODER = new Method() {
+    @Override
+    public boolean second() {
+      return true;
+    }
+
+    @Override
+    public void step(double ur, double ui, double vr, double vi, double[] out) {
+      // u / (1 - u v)
+      divide(ur, ui, 1 - (ur * vr - ui * vi), -(ur * vi + ui * vr), out);
+    }
+
+    @Override
+    public String toString() {
+      return "SCHRODER";
+    }
+  };
+
+  final class Relaxed implements Method {
+    private static final double TOL2 = Complex.TOL * Complex.TOL;
+
+    final double ar, ai;
+
+    public Relaxed(double ar, double ai) {
+      this.ar = ar;
+      this.ai = ai;
+    }
+
+    @Override
+    public boolean second() {
+      return false;
+    }
+
+    @Override
+    public void step(double ur, double ui, double vr, double vi, double[] out) {
+      out[0] = ar * ur - ai * ui;
+      out[1] = ar * ui + ai * ur;
+      // damped steps close in on a root slowly, so orbits stopped by Newton.iterate's test would be scattered
+      // around it further apart than roots are told apart, the step that would stop one is a full one instead
+      if (out[0] * out[0] + out[1] * out[1] <= TOL2) {
+        out[0] = ur;
+        out[1] = ui;
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "RELAXED:" + ar + "," + ai;
+    }
+  }
+
+  private static void divide(double ar, double ai, double br, double bi, double[] out) {
+    double abs2 = br * br + bi * bi;
+    out[0] = (ar * br + ai * bi) / abs2;
+    out[1] = (ai * br - ar * bi) / abs2;
+  }
+
+  // parses a method written like toString does, as -Dnewton.method takes it
+  static Method of(String spec) {
+    String name = spec.trim().toUpperCase();
+    switch (name) {
+      case "NEWTON":
+        return NEWTON;
+      case "HALLEY":
+        return HALLEY;
+      case "HOUSEHOLDER":
+        return HOUSEHOLDER;
+      case "SCHRODER":
+        return SCHRODER;
+    }
+    if (name.startsWith("RELAXED:")) {
+      String[] a = name.substring("RELAXED:".length()).split(",");
+      if (a.length == 1 || a.length == 2) {
+        return new Relaxed(Double.parseDouble(a[0].trim()), a.length == 2 ? Double.parseDouble(a[1].trim()) : 0);
+      }
+    }
+    throw new IllegalArgumentException(
+        "Unknown method " + spec + ", expected NEWTON, RELAXED:re[,im], HALLEY, HOUSEHOLDER or SCHRODER");
+  }
+
+  // -Dnewton.method, NEWTON if it isn't set
+  static Method fromProperty() {
+    return of(System.getProperty("newton.method", "NEWTON"));
+  }
+}
@@ -1,11 +1,53 @@
-import java.util.function.Function;
+import java.util.Arrays;
+import java.util.List;
 
 public class Newton {
-  public Function<Complex, Complex> f, df;
+  // SYMBOLIC evaluates f and the tree from Equation.derivative() separately,
+  // DUAL gets both from one pass of CompiledEquation.evalDual,
+  // BYTECODE from a class BytecodeCompiler generates, falling back to DUAL if it can't
+  public enum Derivative {
+    SYMBOLIC, DUAL, BYTECODE
+  }
+
+  // iterates a row of pixels some faster way than one pixel at a time, see row
+  public interface Kernel {
+    void row(Newton newton, double y, int x0, int x1, double[] re, double[] im, int[] iter);
+  }
+
+  // once the step is shorter than 1e-2, check whether x has reached one of the known roots
+  // compared with the square of the step, like TOL2
+  private static final double NEAR2 = 1e-4;
+  private static final double TOL2 = Complex.TOL * Complex.TOL;
+  // a square of |z| or of a step past this overflows, and the orbit would only go on to hit NaN
+  // nothing smaller will do: infinity repels newton's method on a polynomial, so an orbit thrown out to 1e20
+  // still comes back and converges
+  static final double OVERFLOW2 = Double.MAX_VALUE;
+
+  // df is null when using dual numbers
+  public CompiledEquation f, df;
+  // set for BYTECODE, in which case f is only kept for copies
+  DualFunction generated;
+  // whether generated classes go in BytecodeCompiler's cache
+  boolean cache = true;
+  // set by useMethod, second is f' compiled so evalDual gives f' and f'', generatedSecond the same for BYTECODE
+  Method method = Method.NEWTON;
+  CompiledEquation second;
+  DualFunction generatedSecond;
+  private final double[] out = new double[4], step = new double[2];
+  // roots found up front by useRoots, null if there aren't any, looked up in its grid of cells as orbits close in
+  RootRegistry known;
+  // set by useVector, null to iterate one pixel at a time
+  Kernel kernel;
   int width, maxiter;
   double minX, maxX, minY, maxY;
 
-  public Newton(Function<Complex, Complex> f, Function<Complex, Complex> df, int width, int maxiter, double minX,
+  // result of the last call to iterate
+  public double real, imag;
+  public int iterations;
+  // how many orbits have hit NaN or overflowed, and how many were caught going round a cycle, for RenderMetrics
+  public long diverged, cycles;
+
+  public Newton(CompiledEquation f, CompiledEquation df, int width, int maxiter, double minX,
       double maxX, double minY, double maxY) {
     this.f = f;
     this.df = df;
@@ -17,21 +59,251 @@ public class Newton {
     this.maxY = maxY;
   }
 
-  public Pair<Complex, Integer> newton(Complex x) {
-        int i = 0;
-    
-        for (; i < maxiter; i++) {
-          Complex xTemp = x;
-          x = x.sub(f.apply(x).divide(df.apply(x)));
-          if (Double.isNaN(x.real) || Double.isNaN(x.imag)) {
-            return new Pair<>(x, maxiter);
-          }
-          System.out.println(x);
-          if (xTemp.equals(x))
-            break;
+  public Newton(CompiledEquation f, int width, int maxiter, double minX, double maxX, double minY, double maxY) {
+    this(f, null, width, maxiter, minX, maxX, minY, maxY);
+  }
+
+  public static Newton of(Equation eq, Derivative derivative, int width, int maxiter, double minX, double maxX,
+      double minY, double maxY) {
+    return of(eq, derivative, true, width, maxiter, minX, maxX, minY, maxY);
+  }
+
+  // cache false keeps the classes generated for BYTECODE out of BytecodeCompiler's cache, see BytecodeCompiler.of
+  public static Newton of(Equation eq, Derivative derivative, boolean cache, int width, int maxiter, double minX,
+      double maxX, double minY, double maxY) {
+    if (derivative == Derivative.BYTECODE) {
+      Newton newton = new Newton(eq.compile(), width, maxiter, minX, maxX, minY, maxY);
+      newton.cache = cache;
+      newton.generated = BytecodeCompiler.of(eq, cache);
+      return newton;
+    }
+    if (derivative == Derivative.DUAL) {
+      return new Newton(eq.compile(), width, maxiter, minX, maxX, minY, maxY);
+    }
+    return symbolic(eq, eq.derivative().simplify(), width, maxiter, minX, maxX, minY, maxY);
+  }
+
+  // SYMBOLIC with the derivative already worked out, so it can be timed on its own
+  public static Newton symbolic(Equation eq, Equation derivative, int width, int maxiter, double minX, double maxX,
+      double minY, double maxY) {
+    return new Newton(eq.compile(), derivative.compile(), width, maxiter, minX, maxX, minY, maxY);
+  }
+
+  // the compiled equations keep their registers between calls, so each thread needs its own copy
+  public Newton copy() {
+    Newton copy = new Newton(f.copy(), df == null ? null : df.copy(), width, maxiter, minX, maxX, minY, maxY);
+    copy.known = known;
+    copy.kernel = kernel;
+    copy.generated = generated;
+    copy.method = method;
+    copy.second = second == null ? null : second.copy();
+    copy.generatedSecond = generatedSecond;
+    return copy;
+  }
+
+  // the same equation over different bounds, sharing the compiled equations and roots
+  public Newton view(double minX, double maxX, double minY, double maxY) {
+    return view(width, minX, maxX, minY, maxY);
+  }
+
+  // the same over a region width pixels wide
+  public Newton view(int width, double minX, double maxX, double minY, double maxY) {
+    Newton view = new Newton(f, df, width, maxiter, minX, maxX, minY, maxY);
+    view.known = known;
+    view.kernel = kernel;
+    view.generated = generated;
+    view.method = method;
+    view.second = second;
+    view.generatedSecond = generatedSecond;
+    return view;
+  }
+
+  // for polynomials, iterates rows with VectorKernel, several pixels at once in simd lanes
+  // returns false and leaves newton as it was if eq isn't a polynomial or the jvm wasn't started with
+  // --add-modules jdk.incubator.vector
+  public boolean useVector(Equation eq) {
+    Complex[] coeffs = eq.coefficients();
+    if (coeffs == null || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+      return false;
+    }
+    try {
+      // by name, so nothing tries to link the vector classes when the module isn't there
+      kernel = (Kernel) Class.forName("VectorKernel").getConstructor(Complex[].class).newInstance((Object) coeffs);
+      return true;
+    } catch (ReflectiveOperationException | LinkageError e) {
+      return false;
+    }
+  }
+
+  // iterates with method instead of plain newton, for the methods that need f'' this compiles eq's derivative,
+  // generating a class for it as well with BYTECODE
+  public void useMethod(Method method, Equation eq) {
+    this.method = method;
+    second = null;
+    generatedSecond = null;
+    if (method.second()) {
+      Equation derivative = eq.derivative().simplify();
+      second = derivative.compile();
+      if (generated != null) {
+        generatedSecond = BytecodeCompiler.of(derivative, cache);
+      }
+    }
+  }
+
+  // for polynomials, finds every root before iterating so orbits can stop as soon as they land on one
+  // returns false and leaves newton as it was if eq isn't a polynomial
+  public boolean useRoots(Equation eq) {
+    Complex[] coeffs = eq.coefficients();
+    if (coeffs == null) {
+      return false;
+    }
+    useRoots(Arrays.asList(Polynomial.roots(coeffs)));
+    return true;
+  }
+
+  // the same with roots found some other way, like the ones Animation carries over from the last frame
+  public void useRoots(List<Complex> roots) {
+    known = new RootRegistry();
+    for (Complex root : roots) {
+      known.find(root.real, root.imag);
+    }
+  }
+
+  // runs newton's method, or the one useMethod set, from x, leaving where it ended up in real/imag and the step it
+  // stopped on in iterations
+  // iterations is maxiter if it didn't converge, which it gives up on early when the orbit hits NaN, overflows,
+  // is about to take a step that overflows (as off a zero of f') or comes back round to where it was
+  // cycles are found with brent's algorithm: x is compared to a point saved at the last power of two steps,
+  // which catches a cycle of any length within twice its length plus the steps it took to fall into it
+  public void iterate(double xr, double xi) {
+    int i = 0;
+    double savedR = xr, savedI = xi;
+    int power = 1, length = 0;
+
+    for (; i < maxiter; i++) {
+      double fr, fi, dr, di, er = 0, ei = 0;
+      if (second != null) {
+        // f'' is the derivative of f', so f' and f'' come out of one dual pass over f' and f needs a plain one
+        f.eval(xr, xi);
+        fr = f.real;
+        fi = f.imag;
+        if (generatedSecond != null) {
+          generatedSecond.evalDual(xr, xi, out);
+          dr = out[0];
+          di = out[1];
+          er = out[2];
+          ei = out[3];
+        } else {
+          second.evalDual(xr, xi);
+          dr = second.real;
+          di = second.imag;
+          er = second.dreal;
+          ei = second.dimag;
+        }
+      } else if (generated != null) {
+        generated.evalDual(xr, xi, out);
+        fr = out[0];
+        fi = out[1];
+        dr = out[2];
+        di = out[3];
+      } else if (df == null) {
+        f.evalDual(xr, xi);
+        fr = f.real;
+        fi = f.imag;
+        dr = f.dreal;
+        di = f.dimag;
+      } else {
+        f.eval(xr, xi);
+        df.eval(xr, xi);
+        fr = f.real;
+        fi = f.imag;
+        dr = df.real;
+        di = df.imag;
+      }
+      // step = f(x)/f'(x)
+      double abs2 = dr * dr + di * di;
+      // |f/f'|^2 > OVERFLOW2, the step itself overflows, which is the only time f' counts as too flat to go on
+      if (abs2 * OVERFLOW2 < fr * fr + fi * fi) {
+        diverge(xr, xi);
+        return;
+      }
+      double sr = (fr * dr + fi * di) / abs2;
+      double si = (fi * dr - fr * di) / abs2;
+      if (method != Method.NEWTON) {
+        // f''/f'
+        double vr = (er * dr + ei * di) / abs2, vi = (ei * dr - er * di) / abs2;
+        method.step(sr, si, vr, vi, step);
+        sr = step[0];
+        si = step[1];
+      }
+      xr -= sr;
+      xi -= si;
+      // NaN fails the comparison, so test for it the other way round
+      if (!(xr * xr + xi * xi <= OVERFLOW2)) {
+        diverge(xr, xi);
+        return;
+      }
+      double step2 = sr * sr + si * si;
+      if (known != null && step2 < NEAR2) {
+        RootRegistry.Root root = known.near(xr, xi);
+        if (root != null) {
+          // snap to the root so it lands in the same place every time
+          xr = root.real;
+          xi = root.imag;
+          break;
         }
-    
-        return new Pair<>(x, i);
       }
+      // same test as Complex.equals on the last two points, without the sqrt
+      if (step2 <= TOL2)
+        break;
+      // still taking steps longer than TOL but back where it was
+      double cr = xr - savedR, ci = xi - savedI;
+      if (cr * cr + ci * ci <= TOL2) {
+        real = xr;
+        imag = xi;
+        iterations = maxiter;
+        cycles++;
+        return;
+      }
+      if (++length == power) {
+        savedR = xr;
+        savedI = xi;
+        power <<= 1;
+        length = 0;
+      }
+    }
+
+    real = xr;
+    imag = xi;
+    iterations = i;
+  }
+
+  private void diverge(double xr, double xi) {
+    real = xr;
+    imag = xi;
+    iterations = maxiter;
+    diverged++;
+  }
+
+  // iterates the pixels x0 <= x < x1 of the row at imaginary part y, writing each to x - x0 in re, im and iter
+  public void row(double y, int x0, int x1, double[] re, double[] im, int[] iter) {
+    // the kernel doesn't know about snapping to roots or any method but newton's
+    if (kernel != null && known == null && method == Method.NEWTON) {
+      kernel.row(this, y, x0, x1, re, im, iter);
+      return;
+    }
+    double incrementX = (maxX - minX) / width;
+    for (int x = x0; x < x1; x++) {
+      iterate(minX + incrementX * x, y);
+      re[x - x0] = real;
+      im[x - x0] = imag;
+      iter[x - x0] = iterations;
+    }
+  }
+
+  public Pair<Complex, Integer> newton(Complex x) {
+    iterate(x.real, x.imag);
+    return new Pair<>(new Complex(real, imag), iterations);
+  }
 
 }
@@ -0,0 +1,133 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+// writes an rgb png a few rows at a time, unlike ImageIO which needs the whole image in memory first
+// the rows are compressed as they come in and flushed out in IDAT chunks of at most CHUNK bytes
+public final class PngWriter implements Closeable {
+  private static final int CHUNK = 1 << 16;
+  private static final byte[] SIGNATURE = { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+
+  private final OutputStream out;
+  private final int width, height;
+  private final Deflater deflater = new Deflater();
+  private final DeflaterOutputStream idat;
+  // one filtered row, the filter type byte then 3 bytes a pixel
+  private final byte[] row;
+  private int rows;
+
+  public PngWriter(OutputStream out, int width, int height) throws IOException {
+    this.out = out;
+    this.width = width;
+    this.height = height;
+    this.row = new byte[1 + 3 * width];
+    this.idat = new DeflaterOutputStream(new Chunks(), deflater, CHUNK);
+    out.write(SIGNATURE);
+    byte[] header = new byte[13];
+    putInt(header, 0, width);
+    putInt(header, 4, height);
+    header[8] = 8; // bits per sample
+    header[9] = 2; // rgb
+    chunk("IHDR", header, header.length);
+  }
+
+  // writes count rows of packed argb pixels, alpha is dropped
+  public void write(int[] pixels, int offset, int count) throws IOException {
+    if (rows + count > height) {
+      throw new IllegalStateException("Image only has " + height + " rows");
+    }
+    for (int y = 0; y < count; y++) {
+      // the sub filter, each byte minus the same byte of the pixel to its left, shrinks smooth gradients a lot
+      row[0] = 1;
+      int prev = 0;
+      for (int x = 0; x < width; x++) {
+        int argb = pixels[offset + y * width + x];
+        row[1 + 3 * x] = (byte) ((argb >> 16) - (prev >> 16));
+        row[2 + 3 * x] = (byte) ((argb >> 8) - (prev >> 8));
+        row[3 + 3 * x] = (byte) (argb - prev);
+        prev = argb;
+      }
+      idat.write(row);
+    }
+    rows += count;
+  }
+
+  // out is closed even when the image is short of rows, so the caller can delete what was written
+  @Override
+  public void close() throws IOException {
+    try {
+      if (rows != height) {
+        throw new IllegalStateException("Only " + rows + " of " + height + " rows were written");
+      }
+      idat.close();
+      chunk("IEND", new byte[0], 0);
+    } finally {
+      deflater.end();
+      out.close();
+    }
+  }
+
+  private void chunk(String type, byte[] data, int length) throws IOException {
+    byte[] header = new byte[8];
+    putInt(header, 0, length);
+    for (int i = 0; i < 4; i++) {
+      header[4 + i] = (byte) type.charAt(i);
+    }
+    CRC32 crc = new CRC32();
+    crc.update(header, 4, 4);
+    crc.update(data, 0, length);
+    byte[] trailer = new byte[4];
+    putInt(trailer, 0, (int) crc.getValue());
+    out.write(header);
+    out.write(data, 0, length);
+    out.write(trailer);
+  }
+
+  private static void putInt(byte[] bytes, int offset, int value) {
+    bytes[offset] = (byte) (value >>> 24);
+    bytes[offset + 1] = (byte) (value >>> 16);
+    bytes[offset + 2] = (byte) (value >>> 8);
+    bytes[offset + 3] = (byte) value;
+  }
+
+  // the compressed stream, cut into IDAT chunks
+  private class Chunks extends OutputStream {
+    final byte[] buffer = new byte[CHUNK];
+    int size;
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      while (length > 0) {
+        int n = Math.min(length, CHUNK - size);
+        System.arraycopy(bytes, offset, buffer, size, n);
+        size += n;
+        offset += n;
+        length -= n;
+        if (size == CHUNK) {
+          flush();
+        }
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (size > 0) {
+        chunk("IDAT", buffer, size);
+        size = 0;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+}
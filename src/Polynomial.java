@@ -0,0 +1,169 @@
+import java.util.ArrayList;
+
+// polynomials as arrays of coefficients, highest power first like Equation.poly and Equation.diff
+public final class Polynomial {
+  // highest degree Equation multiplies a polynomial out to, above it powers stay POW nodes and compile to POWI
+  static final int MAX_DEGREE = 1024;
+
+  private Polynomial() {
+  }
+
+  public static Complex eval(Complex[] coeffs, Complex z) {
+    // horner's method
+    Complex out = new Complex(0d);
+    for (Complex c : coeffs) {
+      out = out.multiply(z).add(c);
+    }
+    return out;
+  }
+
+  public static Complex[] diff(Complex[] coeffs) {
+    if (coeffs.length <= 1) {
+      return new Complex[] { new Complex(0d) };
+    }
+    Complex[] diffCoeffs = new Complex[coeffs.length - 1];
+    for (int i = 0, j = coeffs.length - 1; j > 0; i++, j--) {
+      diffCoeffs[i] = coeffs[i].multiply((double) j);
+    }
+    return diffCoeffs;
+  }
+
+  public static Complex[] add(Complex[] a, Complex[] b) {
+    return combine(a, b, 1d);
+  }
+
+  public static Complex[] sub(Complex[] a, Complex[] b) {
+    return combine(a, b, -1d);
+  }
+
+  private static Complex[] combine(Complex[] a, Complex[] b, double sign) {
+    int n = Math.max(a.length, b.length);
+    Complex[] out = new Complex[n];
+    for (int i = 0; i < n; i++) {
+      // line up the constant terms at the end of both arrays
+      int ia = i - (n - a.length), ib = i - (n - b.length);
+      Complex x = ia >= 0 ? a[ia] : new Complex(0d);
+      Complex y = ib >= 0 ? b[ib] : new Complex(0d);
+      out[i] = x.add(y.multiply(sign));
+    }
+    return out;
+  }
+
+  public static Complex[] multiply(Complex[] a, Complex[] b) {
+    Complex[] out = new Complex[a.length + b.length - 1];
+    for (int i = 0; i < out.length; i++) {
+      out[i] = new Complex(0d);
+    }
+    for (int i = 0; i < a.length; i++) {
+      // powers of z are mostly zeros, skipping them keeps multiplying one out close to linear
+      if (a[i].real == 0 && a[i].imag == 0) {
+        continue;
+      }
+      for (int j = 0; j < b.length; j++) {
+        out[i + j] = out[i + j].add(a[i].multiply(b[j]));
+      }
+    }
+    return out;
+  }
+
+  // a^n by squaring, so it takes log n multiplications instead of n
+  public static Complex[] pow(Complex[] a, int n) {
+    Complex[] out = new Complex[] { new Complex(1d) };
+    Complex[] square = a;
+    while (n > 0) {
+      if ((n & 1) != 0) {
+        out = multiply(out, square);
+      }
+      n >>= 1;
+      if (n > 0) {
+        square = multiply(square, square);
+      }
+    }
+    return out;
+  }
+
+  public static Complex[] scale(Complex[] a, Complex factor) {
+    Complex[] out = new Complex[a.length];
+    for (int i = 0; i < a.length; i++) {
+      out[i] = a[i].multiply(factor);
+    }
+    return out;
+  }
+
+  static Complex[] trim(Complex[] coeffs) {
+    int start = 0;
+    while (start < coeffs.length - 1 && coeffs[start].abs2() == 0) {
+      start++;
+    }
+    Complex[] out = new Complex[coeffs.length - start];
+    System.arraycopy(coeffs, start, out, 0, out.length);
+    return out;
+  }
+
+  // all the distinct roots, found with the durand-kerner method and then polished with a few newton steps
+  // repeated roots only converge to about the cube root of machine precision, so nearby estimates are merged
+  public static Complex[] roots(Complex[] coeffs) {
+    coeffs = trim(coeffs);
+    int n = coeffs.length - 1;
+    if (n < 1) {
+      return new Complex[0];
+    }
+    Complex[] monic = scale(coeffs, new Complex(1d).divide(coeffs[0]));
+    Complex[] z = new Complex[n];
+    Complex seed = new Complex(0.4, 0.9);
+    for (int k = 0; k < n; k++) {
+      z[k] = seed.pow(k);
+    }
+    for (int iter = 0; iter < 1000; iter++) {
+      double maxDelta = 0;
+      for (int k = 0; k < n; k++) {
+        Complex den = new Complex(1d);
+        for (int j = 0; j < n; j++) {
+          if (j != k) {
+            den = den.multiply(z[k].sub(z[j]));
+          }
+        }
+        Complex delta = eval(monic, z[k]).divide(den);
+        if (Double.isNaN(delta.real) || Double.isNaN(delta.imag)) {
+          continue;
+        }
+        z[k] = z[k].sub(delta);
+        maxDelta = Math.max(maxDelta, delta.abs2());
+      }
+      if (maxDelta < 1e-30) {
+        break;
+      }
+    }
+    Complex[] dmonic = diff(monic);
+    for (int k = 0; k < n; k++) {
+      for (int iter = 0; iter < 3; iter++) {
+        Complex next = z[k].sub(eval(monic, z[k]).divide(eval(dmonic, z[k])));
+        if (Double.isNaN(next.real) || Double.isNaN(next.imag)) {
+          break;
+        }
+        z[k] = next;
+      }
+    }
+    ArrayList<Complex> distinct = new ArrayList<>();
+    ArrayList<Integer> counts = new ArrayList<>();
+    for (Complex root : z) {
+      int idx = -1;
+      for (int i = 0; i < distinct.size(); i++) {
+        if (root.sub(distinct.get(i)).abs() < 1e-4) {
+          idx = i;
+        }
+      }
+      if (idx == -1) {
+        distinct.add(root);
+        counts.add(1);
+      } else {
+        // running mean of the estimates
+        int count = counts.get(idx) + 1;
+        Complex mean = distinct.get(idx);
+        distinct.set(idx, mean.add(root.sub(mean).multiply(1d / count)));
+        counts.set(idx, count);
+      }
+    }
+    return distinct.toArray(new Complex[0]);
+  }
+}
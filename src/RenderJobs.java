@@ -0,0 +1,106 @@
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// runs renders in the background, at most jobs of them at once, with the tiles of all of them sharing one pool
+// of threads so that however many windows are open the machine isn't oversubscribed
+// every job belongs to an owner, like a window, and the latest job of an owner wins: submitting one cancels that
+// owner's older job whether it is waiting or running, and nothing else, so at most one job per owner waits and
+// no window is left without its latest render
+// every new window is a new owner, so full() tells App to stop opening them while too many renders are waiting
+public final class RenderJobs {
+  // for the windows of App, sized by -Dnewton.jobs, -Dnewton.threads and -Dnewton.waiting
+  public static final RenderJobs SHARED = new RenderJobs(Integer.getInteger("newton.jobs", 2),
+      Integer.getInteger("newton.threads", Runtime.getRuntime().availableProcessors()),
+      Integer.getInteger("newton.waiting", 8));
+
+  // a render that has been submitted, the renderer checks cancelled() before each tile
+  public final class Job {
+    private final Object owner;
+    private final FutureTask<Void> task;
+    private volatile boolean cancelled;
+
+    private Job(Object owner, Consumer<Job> body) {
+      this.owner = owner;
+      this.task = new FutureTask<>(() -> {
+        try {
+          body.accept(this);
+        } catch (Throwable e) {
+          // nothing waits on the task, so this is the only place a failed render can be reported
+          e.printStackTrace();
+        } finally {
+          forget();
+        }
+      }, null);
+    }
+
+    private void forget() {
+      synchronized (latest) {
+        latest.remove(owner, this);
+      }
+    }
+
+    // a job that hasn't started is taken off the queue, one that has stops after the tiles it is on
+    public void cancel() {
+      cancelled = true;
+      task.cancel(false);
+      executor.remove(task);
+      forget();
+    }
+
+    public boolean cancelled() {
+      return cancelled;
+    }
+  }
+
+  public final ForkJoinPool pool;
+  private final ThreadPoolExecutor executor;
+  private final int waiting;
+  // the job each owner submitted last, until it finishes; guarded by itself
+  private final HashMap<Object, Job> latest = new HashMap<>();
+
+  public RenderJobs(int jobs, int threads, int waiting) {
+    this.pool = new ForkJoinPool(threads);
+    this.waiting = waiting;
+    // unbounded, but cancelled jobs are taken off it, so it never holds more than one job per owner,
+    // and new owners are held back by full()
+    this.executor = new ThreadPoolExecutor(jobs, jobs, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+        runnable -> {
+          Thread t = new Thread(runnable, "Newton Fractal: Render");
+          t.setDaemon(true);
+          return t;
+        });
+  }
+
+  // whether waiting jobs are already queued, a new owner shouldn't submit until some of them have started
+  public boolean full() {
+    return executor.getQueue().size() >= waiting;
+  }
+
+  // queues body as owner's latest job, cancelling the one it replaces
+  public Job submit(Object owner, Consumer<Job> body) {
+    Job job = new Job(owner, body);
+    Job old;
+    synchronized (latest) {
+      old = latest.put(owner, job);
+    }
+    if (old != null) {
+      old.cancel();
+    }
+    executor.execute(job.task);
+    return job;
+  }
+
+  // a renderer for the job, with its tiles run in the shared pool
+  public Renderer renderer(Job job, Newton newton, int width, int height, double minX, double minY,
+      double incrementX, double incrementY) {
+    Renderer renderer = new Renderer(newton, width, height, minX, minY, incrementX, incrementY,
+        pool.getParallelism());
+    renderer.usePool(pool, job::cancelled);
+    return renderer;
+  }
+}
@@ -0,0 +1,267 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// where one render spent its time: how long parsing, simplifying, differentiating, rendering and writing took,
+// how many iterations pixels needed, how many diverged, went round a cycle or never converged, when roots turned up
+// and how long tiles took
+// whoever runs the render times its phases with time() and hands the results to count(), Renderer.useMetrics
+// records the tiles, and finish() publishes the lot over jmx and appends it as a line of json to the file
+// -Dnewton.metrics names, if it is set
+public final class RenderMetrics implements RenderMetricsMXBean {
+  private static final String NAME = "NewtonFractal:type=RenderMetrics";
+
+  final String equation;
+  final int width, height, maxiter;
+
+  // guarded by this
+  private final LinkedHashMap<String, Long> phases = new LinkedHashMap<>();
+  private long[] histogram;
+  private long pixels, diverged, cycles, unconverged;
+  private int roots;
+  private final ArrayList<long[]> growth = new ArrayList<>();
+  private long[] tileNanos = new long[64];
+  private int tiles;
+
+  public RenderMetrics(String equation, int width, int height, int maxiter) {
+    this.equation = equation;
+    this.width = width;
+    this.height = height;
+    this.maxiter = maxiter;
+    this.histogram = new long[maxiter + 1];
+  }
+
+  public synchronized void add(String phase, long nanos) {
+    phases.merge(phase, nanos, Long::sum);
+  }
+
+  // runs work, adding how long it took to the phase
+  public <T> T time(String phase, Supplier<T> work) {
+    long start = System.nanoTime();
+    try {
+      return work.get();
+    } finally {
+      add(phase, System.nanoTime() - start);
+    }
+  }
+
+  public void time(String phase, Runnable work) {
+    time(phase, () -> {
+      work.run();
+      return null;
+    });
+  }
+
+  // a tile finished in nanos, with roots found in the render so far, and of its pixels diverged that hit NaN or
+  // overflowed and cycles that were caught going round a cycle
+  public synchronized void tile(long nanos, int roots, long diverged, long cycles) {
+    if (tiles == tileNanos.length) {
+      tileNanos = Arrays.copyOf(tileNanos, tiles * 2);
+    }
+    tileNanos[tiles++] = nanos;
+    this.diverged += diverged;
+    this.cycles += cycles;
+    if (roots > this.roots) {
+      this.roots = roots;
+      growth.add(new long[] { tiles, roots });
+    }
+  }
+
+  // adds the finished results of a render, or of one strip of it, to the histogram
+  public synchronized void count(short[] root, int[] iter, int roots) {
+    for (int i = 0; i < iter.length; i++) {
+      histogram[iter[i]]++;
+      if (root[i] == -1) {
+        unconverged++;
+      }
+    }
+    pixels += iter.length;
+    this.roots = Math.max(this.roots, roots);
+  }
+
+  // publishes these as the latest metrics over jmx and writes them to -Dnewton.metrics
+  public void finish() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(NAME);
+      synchronized (RenderMetrics.class) {
+        if (server.isRegistered(name)) {
+          server.unregisterMBean(name);
+        }
+        server.registerMBean(this, name);
+      }
+    } catch (JMException e) {
+      throw new RuntimeException(e);
+    }
+    String file = System.getProperty("newton.metrics");
+    if (file != null) {
+      synchronized (RenderMetrics.class) {
+        try (Writer out = new FileWriter(file, true)) {
+          out.write(getJson());
+          out.write('\n');
+        } catch (IOException e) {
+          System.err.println("Couldn't write metrics to " + file + ": " + e);
+        }
+      }
+    }
+  }
+
+  @Override
+  public String getEquation() {
+    return equation;
+  }
+
+  @Override
+  public synchronized Map<String, Double> getPhaseMillis() {
+    LinkedHashMap<String, Double> millis = new LinkedHashMap<>();
+    for (Map.Entry<String, Long> phase : phases.entrySet()) {
+      millis.put(phase.getKey(), phase.getValue() / 1e6);
+    }
+    return millis;
+  }
+
+  @Override
+  public synchronized long getPixels() {
+    return pixels;
+  }
+
+  // over the render phase, which is everything between the equation being ready and the image being coloured
+  @Override
+  public synchronized double getPixelsPerSecond() {
+    Long nanos = phases.get("render");
+    return nanos == null || nanos == 0 ? 0 : pixels * 1e9 / nanos;
+  }
+
+  @Override
+  public synchronized long[] getIterationHistogram() {
+    int end = histogram.length;
+    while (end > 0 && histogram[end - 1] == 0) {
+      end--;
+    }
+    return Arrays.copyOf(histogram, end);
+  }
+
+  @Override
+  public synchronized long getDiverged() {
+    return diverged;
+  }
+
+  @Override
+  public synchronized long getCycles() {
+    return cycles;
+  }
+
+  @Override
+  public synchronized long getUnconverged() {
+    return unconverged;
+  }
+
+  @Override
+  public synchronized int getRoots() {
+    return roots;
+  }
+
+  @Override
+  public synchronized long[][] getRootGrowth() {
+    return growth.toArray(new long[0][]);
+  }
+
+  @Override
+  public synchronized int getTiles() {
+    return tiles;
+  }
+
+  @Override
+  public synchronized double getTileMillisMean() {
+    long total = 0;
+    for (int i = 0; i < tiles; i++) {
+      total += tileNanos[i];
+    }
+    return tiles == 0 ? 0 : total / 1e6 / tiles;
+  }
+
+  @Override
+  public double getTileMillisP50() {
+    return percentile(0.5);
+  }
+
+  @Override
+  public double getTileMillisP99() {
+    return percentile(0.99);
+  }
+
+  @Override
+  public double getTileMillisMax() {
+    return percentile(1);
+  }
+
+  private synchronized double percentile(double p) {
+    if (tiles == 0) {
+      return 0;
+    }
+    long[] sorted = Arrays.copyOf(tileNanos, tiles);
+    Arrays.sort(sorted);
+    return sorted[Math.max(0, (int) Math.ceil(p * tiles) - 1)] / 1e6;
+  }
+
+  // appends s as a json string, control characters like a newline pasted into the equation field included
+  private static void quote(String s, StringBuilder json) {
+    json.append('"');
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\') {
+        json.append('\\').append(c);
+      } else if (c < 0x20) {
+        json.append(String.format("\\u%04x", (int) c));
+      } else {
+        json.append(c);
+      }
+    }
+    json.append('"');
+  }
+
+  @Override
+  public synchronized String getJson() {
+    StringBuilder json = new StringBuilder("{");
+    json.append("\"equation\":");
+    quote(equation, json);
+    json.append(",\"width\":").append(width).append(",\"height\":").append(height);
+    json.append(",\"maxiter\":").append(maxiter);
+    json.append(",\"phaseMillis\":{");
+    String separator = "";
+    for (Map.Entry<String, Double> phase : getPhaseMillis().entrySet()) {
+      json.append(separator);
+      quote(phase.getKey(), json);
+      json.append(':').append(phase.getValue());
+      separator = ",";
+    }
+    json.append('}');
+    json.append(",\"pixels\":").append(pixels);
+    json.append(",\"pixelsPerSecond\":").append(getPixelsPerSecond());
+    json.append(",\"diverged\":").append(diverged).append(",\"cycles\":").append(cycles);
+    json.append(",\"unconverged\":").append(unconverged);
+    json.append(",\"roots\":").append(roots);
+    json.append(",\"rootGrowth\":[");
+    separator = "";
+    for (long[] step : growth) {
+      json.append(separator).append('[').append(step[0]).append(',').append(step[1]).append(']');
+      separator = ",";
+    }
+    json.append(']');
+    json.append(",\"tiles\":{\"count\":").append(tiles).append(",\"meanMillis\":").append(getTileMillisMean());
+    json.append(",\"p50Millis\":").append(getTileMillisP50()).append(",\"p99Millis\":").append(getTileMillisP99());
+    json.append(",\"maxMillis\":").append(getTileMillisMax()).append('}');
+    json.append(",\"iterationHistogram\":").append(Arrays.toString(getIterationHistogram()).replace(" ", ""));
+    return json.append('}').toString();
+  }
+}
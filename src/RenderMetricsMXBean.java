@@ -0,0 +1,41 @@
+import java.util.Map;
+
+// what jmx shows of the latest RenderMetrics, registered as NewtonFractal:type=RenderMetrics
+// times are in milliseconds
+public interface RenderMetricsMXBean {
+  String getEquation();
+
+  Map<String, Double> getPhaseMillis();
+
+  long getPixels();
+
+  double getPixelsPerSecond();
+
+  // how many pixels took each number of iterations, up to the most any pixel took
+  long[] getIterationHistogram();
+
+  // orbits that hit NaN or overflowed, stepping off a zero of f' included
+  long getDiverged();
+
+  // orbits caught going round a cycle
+  long getCycles();
+
+  long getUnconverged();
+
+  int getRoots();
+
+  // { tiles finished, roots found } each time a tile found a new root
+  long[][] getRootGrowth();
+
+  int getTiles();
+
+  double getTileMillisMean();
+
+  double getTileMillisP50();
+
+  double getTileMillisP99();
+
+  double getTileMillisMax();
+
+  String getJson();
+}
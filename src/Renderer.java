@@ -0,0 +1,493 @@
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+// splits the image into tiles and runs newton on them in a ForkJoinPool
+// the tiles are split recursively so idle threads can steal the slow ones near basin boundaries
+// every pixel has its own slot in the result arrays and roots are shared through a RootRegistry,
+// so the image doesn't depend on the order tiles finish in
+public class Renderer {
+  public static final int TILE_SIZE = 32;
+  // every 16th pixel, then every 4th, then the rest, for renderProgressive
+  public static final int[] PASSES = { 16, 4, 1 };
+  // rectangles this narrow or narrower aren't worth checking the border of, see useFill
+  private static final int MIN_FILL = 6;
+
+  public interface TileListener {
+    void tileDone(int x0, int y0, int x1, int y1);
+  }
+
+  final Newton newton;
+  final int width, height, threads;
+  final double minX, minY, incrementX, incrementY;
+
+  // indexed by y * width + x, root is -1 where newton didn't converge
+  // only what colouring needs is kept, so image() can be run again with other settings without iterating again
+  public final short[] root;
+  public final int[] iter;
+  public final ArrayList<Complex> roots = new ArrayList<>();
+  final RootRegistry registry = new RootRegistry();
+
+  // pixels is the packed argb array backing bi, so writing to it draws straight into the image
+  public final BufferedImage bi;
+  final int[] pixels;
+
+  // set by useCache, pixel (x, y) is lattice pixel (originX + x, originY + y)
+  TileCache cache;
+  String view;
+  long originX, originY;
+
+  // set by usePool, otherwise each render makes a pool of its own and is never cancelled
+  ForkJoinPool pool;
+  BooleanSupplier cancelled = () -> false;
+
+  // set by useFill, -1 to iterate every pixel
+  int spread = -1;
+  // pixels the fill filled in without iterating them
+  final AtomicLong filled = new AtomicLong();
+
+  // set by useMetrics
+  RenderMetrics metrics;
+
+  public Renderer(Newton newton, int width, int height, double minX, double minY, double incrementX,
+      double incrementY, int threads) {
+    this.newton = newton;
+    this.width = width;
+    this.height = height;
+    this.minX = minX;
+    this.minY = minY;
+    this.incrementX = incrementX;
+    this.incrementY = incrementY;
+    this.threads = threads;
+    this.iter = new int[width * height];
+    this.root = new short[width * height];
+    this.bi = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    this.pixels = ((DataBufferInt) bi.getRaster().getDataBuffer()).getData();
+  }
+
+  // tiles then line up with the lattice instead of the top left corner of the image
+  // tiles that lie entirely inside the image are loaded from the cache, or stored in it once finished
+  public void useCache(TileCache cache, String view, long originX, long originY) {
+    this.cache = cache;
+    this.view = view;
+    this.originX = originX;
+    this.originY = originY;
+  }
+
+  // tiles run in pool instead, and once cancelled returns true the tiles that haven't started are skipped
+  // and the render returns early, leaving the rest of the results empty
+  public void usePool(ForkJoinPool pool, BooleanSupplier cancelled) {
+    this.pool = pool;
+    this.cancelled = cancelled;
+  }
+
+  // mariani-silver subdivision on the full resolution pass: if the border of a rectangle all converged to one root
+  // in iteration counts at most spread apart, the inside is filled in from the border without iterating it,
+  // otherwise the rectangle is split in four and each quarter checked the same way
+  // basins are mostly large smooth areas so this skips most of the image, but a speck of another basin that
+  // doesn't touch the border of a rectangle is lost with it
+  public void useFill(int spread) {
+    this.spread = spread;
+  }
+
+  // records how long each tile took, how many roots had been found by then and how many orbits diverged or cycled
+  public void useMetrics(RenderMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  // how many pixels have been filled in instead of iterated
+  public long filled() {
+    return filled.get();
+  }
+
+  public boolean cancelled() {
+    return cancelled.getAsBoolean();
+  }
+
+  public void render(TileListener listener) {
+    ForkJoinPool pool = this.pool == null ? new ForkJoinPool(threads) : this.pool;
+    try {
+      pass(pool, 1, 0, listener);
+    } finally {
+      if (pool != this.pool) {
+        pool.shutdown();
+      }
+    }
+    if (!cancelled()) {
+      cluster();
+    }
+  }
+
+  // renders every step-th pixel in each direction for each of steps in turn, which must end with 1
+  // a pass skips the pixels the pass before it already did, and the roots found so far carry over
+  // after every pass but the last the image is filled in with blocks of that pass's pixels and afterPass runs
+  public void renderProgressive(int[] steps, double grayscale, double maxiter, Runnable afterPass) {
+    ForkJoinPool pool = this.pool == null ? new ForkJoinPool(threads) : this.pool;
+    try {
+      int previous = 0;
+      for (int step : steps) {
+        pass(pool, step, previous, null);
+        if (cancelled()) {
+          return;
+        }
+        if (step > 1) {
+          preview(step, grayscale, maxiter);
+          afterPass.run();
+        }
+        previous = step;
+      }
+    } finally {
+      if (pool != this.pool) {
+        pool.shutdown();
+      }
+    }
+    cluster();
+  }
+
+  private void pass(ForkJoinPool pool, int step, int previous, TileListener listener) {
+    int tilesX = (width + Math.floorMod(originX, TILE_SIZE) + TILE_SIZE - 1) / TILE_SIZE;
+    int tilesY = (height + Math.floorMod(originY, TILE_SIZE) + TILE_SIZE - 1) / TILE_SIZE;
+    pool.invoke(new Tiles(0, 0, tilesX, tilesY, step, previous, listener));
+  }
+
+  // swaps the ids the registry gave out while rendering for the sorted indices
+  private void cluster() {
+    int[] order = registry.order();
+    for (int i = 0; i < root.length; i++) {
+      if (root[i] != -1) {
+        root[i] = (short) order[root[i]];
+      }
+    }
+    roots.clear();
+    roots.addAll(registry.roots());
+  }
+
+  // fills each step x step block with the colour of its top left pixel
+  // the roots aren't final yet, so this sorts the ones found so far to pick the hues
+  private void preview(int step, double grayscale, double maxiter) {
+    int[] order = registry.order();
+    float n_hues = order.length;
+    float[] shades = shades(grayscale, maxiter);
+    for (int y = 0; y < height; y += step) {
+      for (int x = 0; x < width; x += step) {
+        int i = y * width + x;
+        float hue = root[i] == -1 ? 0 : order[root[i]] / n_hues;
+        int colour = Color.HSBtoRGB(hue, 1, shades[iter[i]]);
+        for (int by = y; by < Math.min(y + step, height); by++) {
+          for (int bx = x; bx < Math.min(x + step, width); bx++) {
+            pixels[by * width + bx] = colour;
+          }
+        }
+      }
+    }
+  }
+
+  // colours each pixel by the hue of its root, darker the more iterations it took
+  public BufferedImage image(double grayscale, double maxiter) {
+    int n_hues = roots.size();
+    float[] hues = new float[n_hues];
+    for (int i = 0; i < n_hues; i++) {
+      float hue = (float) i / (float) n_hues;
+      hues[i] = hue;
+    }
+    return image(grayscale, maxiter, hues);
+  }
+
+  // the same with the hue of each root given, indexed like roots
+  public BufferedImage image(double grayscale, double maxiter, float[] hues) {
+    float[] shades = shades(grayscale, maxiter);
+    for (int i = 0; i < pixels.length; i++) {
+      int hue_i = root[i];
+      float hue = hue_i == -1 ? 0 : hues[hue_i];
+      float saturation = 1;
+      pixels[i] = Color.HSBtoRGB(hue, saturation, shades[iter[i]]);
+    }
+    return bi;
+  }
+
+  private float[] shades(double grayscale, double maxiter) {
+    return shades(newton.maxiter, grayscale, maxiter);
+  }
+
+  // the brightness of a pixel for each number of iterations up to iterations, so colouring needs no pow
+  static float[] shades(int iterations, double grayscale, double maxiter) {
+    float[] shades = new float[iterations + 1];
+    for (int i = 0; i < shades.length; i++) {
+      shades[i] = (float) Math.pow(1d - ((double) i / maxiter), grayscale);
+    }
+    return shades;
+  }
+
+  // renders the pixels of the tile on the step grid, leaving out the ones on the previous pass's grid
+  private void renderTile(Newton newton, int x0, int y0, int x1, int y1, int step, int previous) {
+    if (step == 1 && spread >= 0) {
+      new Fill(newton, x0, y0, x1, y1, previous).subdivide(x0, y0, x1, y1);
+      return;
+    }
+    // neighbouring pixels usually find the same root, so check that before the registry
+    RootRegistry.Root last = null;
+    double[] re = new double[x1 - x0], im = new double[x1 - x0];
+    int[] its = new int[x1 - x0];
+    int startX = (x0 + step - 1) / step * step, startY = (y0 + step - 1) / step * step;
+    for (int y = startY; y < y1; y += step) {
+      boolean skipRow = previous != 0 && y % previous == 0;
+      if (step == 1 && !skipRow) {
+        newton.row(minY + incrementY * y, x0, x1, re, im, its);
+        for (int x = x0; x < x1; x++) {
+          iter[y * width + x] = its[x - x0];
+          last = identify(y * width + x, re[x - x0], im[x - x0], last);
+        }
+        continue;
+      }
+      for (int x = startX; x < x1; x += step) {
+        if (skipRow && x % previous == 0)
+          continue;
+        int i = y * width + x;
+        newton.iterate(minX + incrementX * x, minY + incrementY * y);
+        iter[i] = newton.iterations;
+        last = identify(i, newton.real, newton.imag, last);
+      }
+    }
+  }
+
+  // the tile's roots are looked up in this render's registry, which may have given them different ids
+  private void load(TileCache.Tile tile, int x0, int y0) {
+    short[] ids = new short[tile.rootRe.length];
+    for (int k = 0; k < ids.length; k++) {
+      ids[k] = id(registry.find(tile.rootRe[k], tile.rootIm[k]));
+    }
+    for (int y = 0; y < TILE_SIZE; y++) {
+      int offset = (y0 + y) * width + x0;
+      System.arraycopy(tile.iter, y * TILE_SIZE, iter, offset, TILE_SIZE);
+      for (int x = 0; x < TILE_SIZE; x++) {
+        short k = tile.root[y * TILE_SIZE + x];
+        root[offset + x] = k == -1 ? -1 : ids[k];
+      }
+    }
+  }
+
+  // stores the roots in the tile once each, and each pixel's root as an index into them
+  private TileCache.Tile save(int x0, int y0) {
+    TileCache.Tile tile = new TileCache.Tile(new short[TILE_SIZE * TILE_SIZE], new int[TILE_SIZE * TILE_SIZE]);
+    ArrayList<RootRegistry.Root> found = new ArrayList<>();
+    // every id in the tile was handed out before this, so is less than the size
+    short[] index = new short[registry.size()];
+    Arrays.fill(index, (short) -1);
+    for (int y = 0; y < TILE_SIZE; y++) {
+      int offset = (y0 + y) * width + x0;
+      System.arraycopy(iter, offset, tile.iter, y * TILE_SIZE, TILE_SIZE);
+      for (int x = 0; x < TILE_SIZE; x++) {
+        short id = root[offset + x];
+        if (id != -1 && index[id] == -1) {
+          index[id] = (short) found.size();
+          found.add(registry.get(id));
+        }
+        tile.root[y * TILE_SIZE + x] = id == -1 ? -1 : index[id];
+      }
+    }
+    tile.rootRe = new double[found.size()];
+    tile.rootIm = new double[found.size()];
+    for (int k = 0; k < found.size(); k++) {
+      tile.rootRe[k] = found.get(k).real;
+      tile.rootIm[k] = found.get(k).imag;
+    }
+    return tile;
+  }
+
+  // sets root[i] to the registry id of the root at (real, imag), or -1 if pixel i didn't converge
+  // returns the root for the next pixel to try
+  private RootRegistry.Root identify(int i, double real, double imag, RootRegistry.Root last) {
+    if (iter[i] == newton.maxiter) {
+      root[i] = -1;
+      return last;
+    }
+    if (last == null || !last.near(real, imag)) {
+      last = registry.find(real, imag);
+    }
+    root[i] = id(last);
+    return last;
+  }
+
+  private static short id(RootRegistry.Root root) {
+    if (root.id > Short.MAX_VALUE) {
+      throw new RuntimeException("More than " + (Short.MAX_VALUE + 1) + " roots in one image");
+    }
+    return (short) root.id;
+  }
+
+  // the state of useFill's subdivision of one tile
+  private class Fill {
+    final Newton newton;
+    final int tileX, tileY, tileWidth;
+    // pixels of the tile that are done, either by an earlier pass or the border of a rectangle
+    final boolean[] done;
+    RootRegistry.Root last;
+
+    Fill(Newton newton, int x0, int y0, int x1, int y1, int previous) {
+      this.newton = newton;
+      this.tileX = x0;
+      this.tileY = y0;
+      this.tileWidth = x1 - x0;
+      this.done = new boolean[(x1 - x0) * (y1 - y0)];
+      if (previous != 0) {
+        for (int y = y0; y < y1; y++) {
+          for (int x = x0; x < x1; x++) {
+            done[(y - y0) * tileWidth + x - x0] = y % previous == 0 && x % previous == 0;
+          }
+        }
+      }
+    }
+
+    void pixel(int x, int y) {
+      int d = (y - tileY) * tileWidth + x - tileX;
+      if (done[d])
+        return;
+      int i = y * width + x;
+      newton.iterate(minX + incrementX * x, minY + incrementY * y);
+      iter[i] = newton.iterations;
+      last = identify(i, newton.real, newton.imag, last);
+      done[d] = true;
+    }
+
+    void subdivide(int x0, int y0, int x1, int y1) {
+      if (x1 - x0 <= MIN_FILL || y1 - y0 <= MIN_FILL) {
+        for (int y = y0; y < y1; y++) {
+          for (int x = x0; x < x1; x++) {
+            pixel(x, y);
+          }
+        }
+        return;
+      }
+      for (int x = x0; x < x1; x++) {
+        pixel(x, y0);
+        pixel(x, y1 - 1);
+      }
+      for (int y = y0 + 1; y < y1 - 1; y++) {
+        pixel(x0, y);
+        pixel(x1 - 1, y);
+      }
+      if (uniform(x0, y0, x1, y1)) {
+        fill(x0, y0, x1, y1);
+        return;
+      }
+      int mx = (x0 + x1) / 2, my = (y0 + y1) / 2;
+      subdivide(x0, y0, mx, my);
+      subdivide(mx, y0, x1, my);
+      subdivide(x0, my, mx, y1);
+      subdivide(mx, my, x1, y1);
+    }
+
+    // whether every pixel on the border converged to the same root with iterations at most spread apart
+    boolean uniform(int x0, int y0, int x1, int y1) {
+      int id = root[y0 * width + x0];
+      if (id == -1)
+        return false;
+      int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+      for (int y = y0; y < y1; y++) {
+        // every pixel of the top and bottom rows, the first and last of the others
+        int dx = y == y0 || y == y1 - 1 ? 1 : x1 - x0 - 1;
+        for (int x = x0; x < x1; x += dx) {
+          int i = y * width + x;
+          if (root[i] != id)
+            return false;
+          min = Math.min(min, iter[i]);
+          max = Math.max(max, iter[i]);
+        }
+      }
+      return max - min <= spread;
+    }
+
+    // interpolates the iterations across the inside between the opposite sides of the border
+    void fill(int x0, int y0, int x1, int y1) {
+      long count = 0;
+      double w = x1 - x0 - 1, h = y1 - y0 - 1;
+      for (int y = y0 + 1; y < y1 - 1; y++) {
+        int left = y * width + x0, right = y * width + x1 - 1;
+        for (int x = x0 + 1; x < x1 - 1; x++) {
+          int d = (y - tileY) * tileWidth + x - tileX;
+          if (done[d])
+            continue;
+          int top = y0 * width + x, bottom = (y1 - 1) * width + x;
+          double across = iter[left] + (iter[right] - iter[left]) * (x - x0) / w;
+          double down = iter[top] + (iter[bottom] - iter[top]) * (y - y0) / h;
+          int i = y * width + x;
+          iter[i] = (int) Math.round((across + down) / 2);
+          root[i] = root[left];
+          done[d] = true;
+          count++;
+        }
+      }
+      filled.addAndGet(count);
+    }
+  }
+
+  // a rectangle of tiles, split in half until it is a single tile
+  private class Tiles extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    final int tx0, ty0, tx1, ty1, step, previous;
+    final TileListener listener;
+
+    Tiles(int tx0, int ty0, int tx1, int ty1, int step, int previous, TileListener listener) {
+      this.tx0 = tx0;
+      this.ty0 = ty0;
+      this.tx1 = tx1;
+      this.ty1 = ty1;
+      this.step = step;
+      this.previous = previous;
+      this.listener = listener;
+    }
+
+    @Override
+    protected void compute() {
+      if (tx1 - tx0 > 1) {
+        int mid = (tx0 + tx1) / 2;
+        invokeAll(new Tiles(tx0, ty0, mid, ty1, step, previous, listener),
+            new Tiles(mid, ty0, tx1, ty1, step, previous, listener));
+      } else if (ty1 - ty0 > 1) {
+        int mid = (ty0 + ty1) / 2;
+        invokeAll(new Tiles(tx0, ty0, tx1, mid, step, previous, listener),
+            new Tiles(tx0, mid, tx1, ty1, step, previous, listener));
+      } else if (tx1 > tx0 && ty1 > ty0 && !cancelled()) {
+        // the first tile is cut short when the image doesn't start on a tile boundary of the lattice
+        int fx0 = tx0 * TILE_SIZE - Math.floorMod(originX, TILE_SIZE);
+        int fy0 = ty0 * TILE_SIZE - Math.floorMod(originY, TILE_SIZE);
+        int x0 = Math.max(fx0, 0), y0 = Math.max(fy0, 0);
+        int x1 = Math.min(fx0 + TILE_SIZE, width), y1 = Math.min(fy0 + TILE_SIZE, height);
+        TileCache.Key key = null;
+        if (cache != null && x1 - x0 == TILE_SIZE && y1 - y0 == TILE_SIZE) {
+          key = new TileCache.Key(view, Math.floorDiv(originX, TILE_SIZE) + tx0,
+              Math.floorDiv(originY, TILE_SIZE) + ty0);
+        }
+        long start = System.nanoTime();
+        long diverged = 0, cycles = 0;
+        TileCache.Tile cached = key == null ? null : cache.get(key);
+        if (cached != null) {
+          load(cached, x0, y0);
+        } else {
+          // CompiledEquation isn't thread safe, so each tile gets its own registers
+          Newton copy = newton.copy();
+          renderTile(copy, x0, y0, x1, y1, step, previous);
+          diverged = copy.diverged;
+          cycles = copy.cycles;
+          // only the last pass has every pixel
+          if (key != null && step == 1) {
+            cache.put(key, save(x0, y0));
+          }
+        }
+        if (metrics != null) {
+          metrics.tile(System.nanoTime() - start, registry.size(), diverged, cycles);
+        }
+        if (listener != null) {
+          listener.tileDone(x0, y0, x1, y1);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,131 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+// keeps finished renders on disk, so changing only how an image is coloured doesn't mean iterating it again
+// each file holds the roots, then every pixel's root index, then every pixel's iteration count, and is read
+// back through memory mapped buffers straight into a Renderer's arrays
+// files are named by a hash of everything the results depend on, see key()
+public final class ResultCache {
+  private static final int MAGIC = 0x4e465231; // NFR1
+  private static final int HEADER = 16;
+  // files are mapped in pieces of at most this many bytes, since one buffer can't reach past 2GB
+  private static final int REGION = 1 << 30;
+
+  final Path dir;
+
+  public ResultCache(Path dir) {
+    this.dir = dir;
+  }
+
+  // the cache in the directory -Dnewton.results names, or null if it isn't set
+  public static ResultCache fromProperty() {
+    String dir = System.getProperty("newton.results");
+    return dir == null ? null : new ResultCache(Paths.get(dir));
+  }
+
+  public static String key(Equation eq, Newton.Derivative derivative, Method method, boolean roots, int spread,
+      double minX, double maxX, double minY, double maxY, int width, int height, int maxiter) {
+    String params = eq.canonical() + "|" + derivative + "|" + method + "|" + roots + "|" + spread + "|" + minX + "|"
+        + maxX + "|" + minY + "|" + maxY + "|" + width + "|" + height + "|" + maxiter;
+    try {
+      byte[] hash = MessageDigest.getInstance("SHA-256").digest(params.getBytes(StandardCharsets.UTF_8));
+      StringBuilder hex = new StringBuilder();
+      for (byte b : hash) {
+        hex.append(String.format("%02x", b));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private Path file(String key) {
+    return dir.resolve(key + ".nfr");
+  }
+
+  private static long size(int roots, int pixels) {
+    return HEADER + 16L * roots + 6L * pixels;
+  }
+
+  // fills in the renderer's roots and per pixel results as if it had rendered them
+  // returns false if there's no file for the key, or it doesn't fit the renderer
+  public boolean load(String key, Renderer renderer) throws IOException {
+    Path file = file(key);
+    if (!Files.isRegularFile(file)) {
+      return false;
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (channel.size() < HEADER) {
+        return false;
+      }
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER).order(ByteOrder.LITTLE_ENDIAN);
+      int magic = header.getInt(), width = header.getInt(), height = header.getInt(), n = header.getInt();
+      int pixels = renderer.width * renderer.height;
+      if (magic != MAGIC || width != renderer.width || height != renderer.height
+          || channel.size() != size(n, pixels)) {
+        return false;
+      }
+      long position = HEADER;
+      ByteBuffer roots = channel.map(FileChannel.MapMode.READ_ONLY, position, 16L * n)
+          .order(ByteOrder.LITTLE_ENDIAN);
+      renderer.roots.clear();
+      for (int k = 0; k < n; k++) {
+        renderer.roots.add(new Complex(roots.getDouble(), roots.getDouble()));
+      }
+      position += 16L * n;
+      for (int i = 0; i < pixels; i += REGION / 2) {
+        int count = Math.min(REGION / 2, pixels - i);
+        channel.map(FileChannel.MapMode.READ_ONLY, position + 2L * i, 2L * count).order(ByteOrder.LITTLE_ENDIAN)
+            .asShortBuffer().get(renderer.root, i, count);
+      }
+      position += 2L * pixels;
+      for (int i = 0; i < pixels; i += REGION / 4) {
+        int count = Math.min(REGION / 4, pixels - i);
+        channel.map(FileChannel.MapMode.READ_ONLY, position + 4L * i, 4L * count).order(ByteOrder.LITTLE_ENDIAN)
+            .asIntBuffer().get(renderer.iter, i, count);
+      }
+    }
+    return true;
+  }
+
+  // writes a finished render, to a temporary file first so a half written one is never loaded
+  public void save(String key, Renderer renderer) throws IOException {
+    Files.createDirectories(dir);
+    Path temp = Files.createTempFile(dir, key, ".tmp");
+    int n = renderer.roots.size(), pixels = renderer.width * renderer.height;
+    try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + 16L * n)
+          .order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(MAGIC).putInt(renderer.width).putInt(renderer.height).putInt(n);
+      for (Complex root : renderer.roots) {
+        header.putDouble(root.real).putDouble(root.imag);
+      }
+      long position = HEADER + 16L * n;
+      for (int i = 0; i < pixels; i += REGION / 2) {
+        int count = Math.min(REGION / 2, pixels - i);
+        channel.map(FileChannel.MapMode.READ_WRITE, position + 2L * i, 2L * count).order(ByteOrder.LITTLE_ENDIAN)
+            .asShortBuffer().put(renderer.root, i, count);
+      }
+      position += 2L * pixels;
+      for (int i = 0; i < pixels; i += REGION / 4) {
+        int count = Math.min(REGION / 4, pixels - i);
+        channel.map(FileChannel.MapMode.READ_WRITE, position + 4L * i, 4L * count).order(ByteOrder.LITTLE_ENDIAN)
+            .asIntBuffer().put(renderer.iter, i, count);
+      }
+    } catch (IOException e) {
+      Files.deleteIfExists(temp);
+      throw e;
+    }
+    Files.move(temp, file(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+}
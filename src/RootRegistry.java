@@ -0,0 +1,131 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+
+// thread safe replacement for list.indexOf when clustering the points newton converged to
+// roots are bucketed into a grid of cells, so a lookup only compares against the roots in a 2x2 block of cells
+// ids are handed out in the order roots are found, order() then sorts them so the final indices
+// don't depend on which tile finished first
+public final class RootRegistry {
+  // points closer than TOL are the same root, with cells twice that size a root within TOL of a point
+  // is always in the point's cell or the neighbour on the side of the cell the point is closest to
+  private static final double CELL = 2 * Complex.TOL;
+  private static final double TOL2 = Complex.TOL * Complex.TOL;
+
+  public static final class Root {
+    public final double real, imag;
+    public final int id;
+
+    Root(double real, double imag, int id) {
+      this.real = real;
+      this.imag = imag;
+      this.id = id;
+    }
+
+    public boolean near(double real, double imag) {
+      double dr = real - this.real, di = imag - this.imag;
+      return dr * dr + di * di <= TOL2;
+    }
+  }
+
+  // the arrays are never modified once they are in the map, so readers don't need to lock
+  private final ConcurrentHashMap<Long, Root[]> cells = new ConcurrentHashMap<>();
+  // guarded by this
+  private final ArrayList<Root> roots = new ArrayList<>();
+
+  private static long key(long qx, long qy) {
+    return qx * 0x9E3779B97F4A7C15L + qy;
+  }
+
+  private Root lookup(double real, double imag) {
+    double fx = real / CELL, fy = imag / CELL;
+    long qx = (long) Math.floor(fx), qy = (long) Math.floor(fy);
+    long nx = fx - qx < 0.5 ? qx - 1 : qx + 1;
+    long ny = fy - qy < 0.5 ? qy - 1 : qy + 1;
+    Root root = lookup(key(qx, qy), real, imag);
+    if (root == null)
+      root = lookup(key(nx, qy), real, imag);
+    if (root == null)
+      root = lookup(key(qx, ny), real, imag);
+    if (root == null)
+      root = lookup(key(nx, ny), real, imag);
+    return root;
+  }
+
+  private Root lookup(long key, double real, double imag) {
+    Root[] cell = cells.get(key);
+    if (cell == null)
+      return null;
+    for (Root root : cell) {
+      if (root.near(real, imag))
+        return root;
+    }
+    return null;
+  }
+
+  // the root within TOL of the point, or null, without adding one
+  public Root near(double real, double imag) {
+    return lookup(real, imag);
+  }
+
+  public Root find(double real, double imag) {
+    Root root = lookup(real, imag);
+    if (root != null)
+      return root;
+    synchronized (this) {
+      // another thread may have added it since the first lookup
+      root = lookup(real, imag);
+      if (root != null)
+        return root;
+      root = new Root(real, imag, roots.size());
+      roots.add(root);
+      long key = key((long) Math.floor(real / CELL), (long) Math.floor(imag / CELL));
+      cells.merge(key, new Root[] { root }, (a, b) -> {
+        Root[] merged = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, merged, a.length, b.length);
+        return merged;
+      });
+      return root;
+    }
+  }
+
+  public synchronized Root get(int id) {
+    return roots.get(id);
+  }
+
+  public synchronized int size() {
+    return roots.size();
+  }
+
+  // maps each id to its position when the roots are sorted by real part, then imaginary part
+  // real parts within a few TOL of each other count as equal, since the stored point of a root
+  // depends on which pixel found it first: the real parts are sorted and cut into runs wherever
+  // neighbours are further apart than that, and the roots sorted by run, then imaginary part
+  // comparing real parts directly with a tolerance wouldn't be transitive, which Arrays.sort needs
+  public synchronized int[] order() {
+    Root[] sorted = roots.toArray(new Root[0]);
+    Arrays.sort(sorted, Comparator.comparingDouble((Root root) -> root.real));
+    int[] run = new int[roots.size()];
+    for (int i = 1; i < sorted.length; i++) {
+      run[sorted[i].id] = run[sorted[i - 1].id] + (sorted[i].real - sorted[i - 1].real > 10 * Complex.TOL ? 1 : 0);
+    }
+    Arrays.sort(sorted, Comparator.comparingInt((Root root) -> run[root.id])
+        .thenComparingDouble(root -> root.imag)
+        .thenComparingDouble(root -> root.real));
+    int[] order = new int[sorted.length];
+    for (int i = 0; i < sorted.length; i++) {
+      order[sorted[i].id] = i;
+    }
+    return order;
+  }
+
+  public synchronized ArrayList<Complex> roots() {
+    int[] order = order();
+    Complex[] sorted = new Complex[order.length];
+    for (Root root : roots) {
+      sorted[order[root.id]] = new Complex(root.real, root.imag);
+    }
+    return new ArrayList<>(Arrays.asList(sorted));
+  }
+}
@@ -0,0 +1,106 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+// renders an image a strip of rows at a time and streams each one into a png as soon as it is coloured,
+// so only one strip's results are ever in memory however tall the image is
+// hues can't wait until every root has been found, so they are fixed up front from a polynomial's roots,
+// or from a small render of the whole view otherwise; a root neither of those found gets its hue from its argument
+public final class Strips {
+  // size of the render that finds the roots of equations that aren't polynomials
+  private static final int SAMPLE = 256;
+
+  final Newton newton;
+  final int width, height, threads;
+  final double minX, minY, incrementX, incrementY;
+  int spread = -1;
+  RenderMetrics metrics;
+
+  // the roots hues were given to up front are ids 0 to known - 1
+  final RootRegistry palette = new RootRegistry();
+  final int known;
+  final int[] order;
+
+  public Strips(Equation eq, Newton newton, int width, int height, double minX, double minY, double incrementX,
+      double incrementY, int threads) {
+    this.newton = newton;
+    this.width = width;
+    this.height = height;
+    this.minX = minX;
+    this.minY = minY;
+    this.incrementX = incrementX;
+    this.incrementY = incrementY;
+    this.threads = threads;
+    Complex[] coeffs = eq.coefficients();
+    ArrayList<Complex> roots = new ArrayList<>();
+    if (coeffs != null) {
+      for (Complex root : Polynomial.roots(coeffs)) {
+        roots.add(root);
+      }
+    } else {
+      int sampleWidth = Math.min(width, SAMPLE), sampleHeight = Math.min(height, SAMPLE);
+      double sampleX = incrementX * width / sampleWidth, sampleY = incrementY * height / sampleHeight;
+      Renderer sample = new Renderer(newton.view(minX, minX + width * incrementX, minY, minY + height * incrementY),
+          sampleWidth, sampleHeight, minX, minY, sampleX, sampleY, threads);
+      sample.render(null);
+      roots.addAll(sample.roots);
+    }
+    for (Complex root : roots) {
+      palette.find(root.real, root.imag);
+    }
+    this.known = palette.size();
+    this.order = palette.order();
+  }
+
+  // see Renderer.useFill
+  public void useFill(int spread) {
+    this.spread = spread;
+  }
+
+  // see Renderer.useMetrics, every strip's tiles and results are added to metrics
+  public void useMetrics(RenderMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  private float hue(Complex root) {
+    RootRegistry.Root found = palette.find(root.real, root.imag);
+    if (found.id < known) {
+      return (float) order[found.id] / known;
+    }
+    return (float) ((Math.atan2(root.imag, root.real) / (2 * Math.PI) + 1) % 1);
+  }
+
+  // rows is the height of a strip, rounded up to whole tiles
+  // returns how many pixels Renderer.useFill filled in
+  public long write(int rows, double grayscale, double maxiter, OutputStream out) throws IOException {
+    rows = (Math.max(rows, 1) + Renderer.TILE_SIZE - 1) / Renderer.TILE_SIZE * Renderer.TILE_SIZE;
+    long filled = 0;
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try (PngWriter png = new PngWriter(out, width, height)) {
+      for (int y = 0; y < height; y += rows) {
+        int stripHeight = Math.min(rows, height - y);
+        double stripY = minY + incrementY * y;
+        Renderer strip = new Renderer(newton.view(minX, minX + width * incrementX, stripY,
+            stripY + stripHeight * incrementY), width, stripHeight, minX, stripY, incrementX, incrementY, threads);
+        strip.usePool(pool, () -> false);
+        strip.useFill(spread);
+        strip.useMetrics(metrics);
+        strip.render(null);
+        filled += strip.filled();
+        if (metrics != null) {
+          metrics.count(strip.root, strip.iter, strip.roots.size());
+        }
+        float[] hues = new float[strip.roots.size()];
+        for (int i = 0; i < hues.length; i++) {
+          hues[i] = hue(strip.roots.get(i));
+        }
+        strip.image(grayscale, maxiter, hues);
+        png.write(strip.pixels, 0, stripHeight);
+      }
+    } finally {
+      pool.shutdown();
+    }
+    return filled;
+  }
+}
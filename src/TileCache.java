@@ -0,0 +1,88 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+// least recently used cache of finished tiles, bounded by the memory their arrays take up
+// tiles are keyed by where they sit on a pixel lattice (see Viewer), so a tile is found again after
+// panning, or after zooming away and back, as long as the lattice is the same
+public final class TileCache {
+  public static final class Key {
+    final String view;
+    final long tx, ty;
+
+    public Key(String view, long tx, long ty) {
+      this.view = view;
+      this.tx = tx;
+      this.ty = ty;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key))
+        return false;
+      Key key = (Key) other;
+      return tx == key.tx && ty == key.ty && view.equals(key.view);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(view, tx, ty);
+    }
+  }
+
+  // the results for one TILE_SIZE x TILE_SIZE tile, indexed by y * TILE_SIZE + x
+  // root is an index into rootRe and rootIm, which hold each root in the tile once, or -1
+  public static final class Tile {
+    double[] rootRe, rootIm;
+    final short[] root;
+    final int[] iter;
+
+    Tile(short[] root, int[] iter) {
+      this.root = root;
+      this.iter = iter;
+    }
+
+    long bytes() {
+      return 8L * rootRe.length + 8L * rootIm.length + 2L * root.length + 4L * iter.length;
+    }
+  }
+
+  private final long maxBytes;
+  // guarded by this
+  private final LinkedHashMap<Key, Tile> tiles = new LinkedHashMap<>(16, 0.75f, true);
+  private long bytes;
+
+  public TileCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  // everything other than the tile's position that its pixels depend on
+  // increment is the size of a pixel and phase the offset of the lattice from 0, spread is Renderer.useFill's
+  public static String view(String eq, Method method, double incrementX, double incrementY, double phaseX,
+      double phaseY, int maxiter, int spread) {
+    return eq + "|" + method + "|" + incrementX + "|" + incrementY + "|" + phaseX + "|" + phaseY + "|" + maxiter + "|"
+        + spread;
+  }
+
+  public synchronized Tile get(Key key) {
+    return tiles.get(key);
+  }
+
+  public synchronized void put(Key key, Tile tile) {
+    Tile old = tiles.put(key, tile);
+    if (old != null) {
+      bytes -= old.bytes();
+    }
+    bytes += tile.bytes();
+    Iterator<Map.Entry<Key, Tile>> eldest = tiles.entrySet().iterator();
+    while (bytes > maxBytes && eldest.hasNext()) {
+      bytes -= eldest.next().getValue().bytes();
+      eldest.remove();
+    }
+  }
+
+  public synchronized int size() {
+    return tiles.size();
+  }
+}
@@ -0,0 +1,103 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// newton's method on as many pixels of a row at once as the cpu has double lanes, for polynomials only
+// p and p' come out of one horner loop over the coefficients, and a lane stops updating once it has
+// converged, diverged or gone round a cycle, with the same tests as Newton.iterate
+// every lane is on the same step, so one brent's power of two serves them all
+// this needs --add-modules jdk.incubator.vector at runtime, Newton.useVector only loads it when that's there
+public final class VectorKernel implements Newton.Kernel {
+  private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+  private static final double TOL2 = Complex.TOL * Complex.TOL;
+
+  // highest power first
+  private final double[] coeffRe, coeffIm;
+
+  public VectorKernel(Complex[] coeffs) {
+    coeffs = Polynomial.trim(coeffs);
+    coeffRe = new double[coeffs.length];
+    coeffIm = new double[coeffs.length];
+    for (int k = 0; k < coeffs.length; k++) {
+      coeffRe[k] = coeffs[k].real;
+      coeffIm[k] = coeffs[k].imag;
+    }
+  }
+
+  @Override
+  public void row(Newton newton, double y, int x0, int x1, double[] re, double[] im, int[] iter) {
+    double incrementX = (newton.maxX - newton.minX) / newton.width;
+    int lanes = SPECIES.length();
+    double[] start = new double[lanes], stops = new double[lanes];
+    int x = x0;
+    for (; x + lanes <= x1; x += lanes) {
+      for (int l = 0; l < lanes; l++) {
+        start[l] = newton.minX + incrementX * (x + l);
+      }
+      DoubleVector zr = DoubleVector.fromArray(SPECIES, start, 0);
+      DoubleVector zi = DoubleVector.broadcast(SPECIES, y);
+      // the iteration each lane stopped on, lanes that never stop took maxiter
+      DoubleVector stop = DoubleVector.broadcast(SPECIES, newton.maxiter);
+      VectorMask<Double> active = SPECIES.maskAll(true);
+      DoubleVector savedR = zr, savedI = zi;
+      int power = 1, length = 0;
+      for (int i = 0; i < newton.maxiter && active.anyTrue(); i++) {
+        DoubleVector pr = DoubleVector.broadcast(SPECIES, coeffRe[0]);
+        DoubleVector pi = DoubleVector.broadcast(SPECIES, coeffIm[0]);
+        DoubleVector dr = DoubleVector.zero(SPECIES), di = DoubleVector.zero(SPECIES);
+        for (int k = 1; k < coeffRe.length; k++) {
+          // p' = p' * z + p, then p = p * z + c
+          DoubleVector ndr = dr.mul(zr).sub(di.mul(zi)).add(pr);
+          DoubleVector ndi = dr.mul(zi).add(di.mul(zr)).add(pi);
+          DoubleVector npr = pr.mul(zr).sub(pi.mul(zi)).add(coeffRe[k]);
+          DoubleVector npi = pr.mul(zi).add(pi.mul(zr)).add(coeffIm[k]);
+          dr = ndr;
+          di = ndi;
+          pr = npr;
+          pi = npi;
+        }
+        // step = p / p'
+        DoubleVector abs2 = dr.mul(dr).add(di.mul(di));
+        DoubleVector p2 = pr.mul(pr).add(pi.mul(pi));
+        VectorMask<Double> overstep = abs2.mul(Newton.OVERFLOW2).compare(VectorOperators.LT, p2).and(active);
+        active = active.andNot(overstep);
+        DoubleVector sr = pr.mul(dr).add(pi.mul(di)).div(abs2);
+        DoubleVector si = pi.mul(dr).sub(pr.mul(di)).div(abs2);
+        zr = zr.blend(zr.sub(sr), active);
+        zi = zi.blend(zi.sub(si), active);
+        // NaN fails the comparison, so it counts as overflowed
+        VectorMask<Double> overflowed = zr.mul(zr).add(zi.mul(zi)).compare(VectorOperators.LE, Newton.OVERFLOW2).not()
+            .and(active);
+        active = active.andNot(overflowed);
+        newton.diverged += overstep.trueCount() + overflowed.trueCount();
+        VectorMask<Double> converged = sr.mul(sr).add(si.mul(si)).compare(VectorOperators.LE, TOL2).and(active);
+        stop = stop.blend(i, converged);
+        active = active.andNot(converged);
+        DoubleVector cr = zr.sub(savedR), ci = zi.sub(savedI);
+        VectorMask<Double> cycle = cr.mul(cr).add(ci.mul(ci)).compare(VectorOperators.LE, TOL2).and(active);
+        active = active.andNot(cycle);
+        newton.cycles += cycle.trueCount();
+        if (++length == power) {
+          savedR = zr;
+          savedI = zi;
+          power <<= 1;
+          length = 0;
+        }
+      }
+      zr.intoArray(re, x - x0);
+      zi.intoArray(im, x - x0);
+      stop.intoArray(stops, 0);
+      for (int l = 0; l < lanes; l++) {
+        iter[x - x0 + l] = (int) stops[l];
+      }
+    }
+    // whatever doesn't fill a whole vector
+    for (; x < x1; x++) {
+      newton.iterate(newton.minX + incrementX * x, y);
+      re[x - x0] = newton.real;
+      im[x - x0] = newton.imag;
+      iter[x - x0] = newton.iterations;
+    }
+  }
+}
@@ -0,0 +1,180 @@
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.io.IOException;
+
+import javax.swing.SwingUtilities;
+
+// mouse wheel zoom and drag to pan for a rendered image
+// the view is a window onto a lattice of pixels, lattice pixel p being the point phase + p * increment
+// panning moves the window by whole pixels and zooming halves or doubles the increment around the same phase,
+// so the pixels a view shares with an earlier one land exactly on tiles in the TileCache
+public class Viewer extends MouseAdapter {
+  // shared between windows, so drawing the same equation again is also instant
+  static final TileCache CACHE = new TileCache(Long.getLong("newton.cache.mb", 256L) << 20);
+  // see Renderer.useFill, -1 to iterate every pixel
+  static final int FILL = Integer.getInteger("newton.fill", -1);
+
+  final String eq;
+  final ImageComponent image;
+  final Newton newton;
+  final RenderJobs jobs;
+  final int width, height;
+  final double grayscale;
+  final double phaseX, phaseY;
+  // only touched on the event dispatch thread
+  double incrementX, incrementY;
+  long originX, originY;
+  private int dragX, dragY;
+  // notches the wheel has turned since the last zoom, trackpads and smooth wheels send fractions of one
+  private double wheel;
+
+  // the render of the current view, cancelled as soon as the view changes again
+  private RenderJobs.Job job;
+  // set by useResults
+  private ResultCache results;
+  private String key;
+  private double resultsX, resultsY;
+
+  public Viewer(String eq, ImageComponent image, Newton newton, RenderJobs jobs, int width, int height,
+      double grayscale, double minX, double minY, double incrementX, double incrementY) {
+    this.eq = eq;
+    this.image = image;
+    this.newton = newton;
+    this.jobs = jobs;
+    this.width = width;
+    this.height = height;
+    this.grayscale = grayscale;
+    this.phaseX = minX;
+    this.phaseY = minY;
+    this.incrementX = incrementX;
+    this.incrementY = incrementY;
+  }
+
+  // the results of the current view are kept in results under key, and loaded from there instead of rendered
+  // whenever the view comes back to it
+  public void useResults(ResultCache results, String key) {
+    this.results = results;
+    this.key = key;
+    this.resultsX = incrementX;
+    this.resultsY = incrementY;
+  }
+
+  // renders the current view in the background, only called on the event dispatch thread
+  // the job replaces this viewer's last one in RenderJobs, which cancels it
+  public void show() {
+    double incrementX = this.incrementX, incrementY = this.incrementY;
+    long originX = this.originX, originY = this.originY;
+    String key = results != null && originX == 0 && originY == 0 && incrementX == resultsX && incrementY == resultsY
+        ? this.key
+        : null;
+    job = jobs.submit(this, running -> {
+      double minX = phaseX + originX * incrementX, minY = phaseY + originY * incrementY;
+      Newton view = newton.view(minX, minX + width * incrementX, minY, minY + height * incrementY);
+      Renderer renderer = jobs.renderer(running, view, width, height, minX, minY, incrementX, incrementY);
+      if (key != null && load(key, renderer)) {
+        renderer.image(grayscale, newton.maxiter);
+        image.setImage(renderer.bi);
+        return;
+      }
+      renderer.useCache(CACHE, TileCache.view(eq, newton.method, incrementX, incrementY, phaseX, phaseY,
+          newton.maxiter, FILL),
+          originX, originY);
+      renderer.useFill(FILL);
+      RenderMetrics metrics = new RenderMetrics(eq, width, height, newton.maxiter);
+      renderer.useMetrics(metrics);
+      // keep showing the old view until the first pass of the new one is ready
+      metrics.time("render", () -> renderer.renderProgressive(Renderer.PASSES, grayscale, newton.maxiter, () -> {
+        if (!running.cancelled()) {
+          image.setImage(renderer.bi);
+        }
+      }));
+      if (!running.cancelled()) {
+        metrics.count(renderer.root, renderer.iter, renderer.roots.size());
+        metrics.time("colour", () -> renderer.image(grayscale, newton.maxiter));
+        image.setImage(renderer.bi);
+        if (key != null) {
+          save(key, renderer);
+        }
+        metrics.finish();
+      }
+    });
+  }
+
+  private boolean load(String key, Renderer renderer) {
+    try {
+      return results.load(key, renderer);
+    } catch (IOException e) {
+      e.printStackTrace();
+      return false;
+    }
+  }
+
+  private void save(String key, Renderer renderer) {
+    try {
+      results.save(key, renderer);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  public void close() {
+    if (job != null) {
+      job.cancel();
+    }
+  }
+
+  @Override
+  public void mousePressed(MouseEvent e) {
+    if (SwingUtilities.isLeftMouseButton(e)) {
+      dragX = e.getX();
+      dragY = e.getY();
+    }
+  }
+
+  @Override
+  public void mouseDragged(MouseEvent e) {
+    if (SwingUtilities.isLeftMouseButton(e)) {
+      image.setOffset(e.getX() - dragX, e.getY() - dragY);
+    }
+  }
+
+  @Override
+  public void mouseReleased(MouseEvent e) {
+    if (!SwingUtilities.isLeftMouseButton(e)) {
+      return;
+    }
+    int dx = e.getX() - dragX, dy = e.getY() - dragY;
+    if (dx != 0 || dy != 0) {
+      originX -= dx;
+      originY -= dy;
+      show();
+    }
+  }
+
+  @Override
+  public void mouseWheelMoved(MouseWheelEvent e) {
+    // keep the lattice pixel under the cursor where it is
+    int sx = e.getX(), sy = e.getY();
+    wheel += e.getPreciseWheelRotation();
+    if (Math.abs(wheel) < 1) {
+      return;
+    }
+    boolean in = wheel < 0;
+    wheel = 0;
+    if (in) {
+      // lattice pixel p becomes 2p at half the increment
+      originX = 2 * (originX + sx) - sx;
+      originY = 2 * (originY + sy) - sy;
+      incrementX /= 2;
+      incrementY /= 2;
+    } else {
+      // odd pixels aren't on the coarser lattice, so the view can shift by half a pixel
+      originX = Math.floorDiv(originX + sx, 2) - sx;
+      originY = Math.floorDiv(originY + sy, 2) - sy;
+      incrementX *= 2;
+      incrementY *= 2;
+    }
+    show();
+  }
+}
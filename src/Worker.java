@@ -0,0 +1,149 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ForkJoinPool;
+
+// renders tiles for a Coordinator in another jvm, possibly on another machine
+//   java Worker           serves one coordinator over stdin and stdout, how Coordinator starts local workers
+//   java Worker <port>    serves every coordinator that connects to the port, each on its own thread
+// everything goes through Data streams, so big endian:
+//   RENDER  utf equation, utf derivative, utf method, boolean roots, int fill, int maxiter,
+//           double minX, double minY, double incrementX, double incrementY
+//           sets up the render the tiles that follow belong to
+//   TILE    int x0, int y0, int x1, int y1 in pixels of the whole image
+//           answered with int n, n roots as double real, double imag, then for every pixel of the tile
+//           row by row its root as a short index into those n or -1, then every pixel's iterations as ints,
+//           then longs of how many of its orbits diverged and how many went round a cycle, see Newton.iterate
+//   QUIT    ends the connection
+// tiles are answered in the order they were sent, so a coordinator can send the next before the last comes back
+public final class Worker {
+  static final int RENDER = 1, TILE = 2, QUIT = 3;
+
+  private final int threads;
+  private final ForkJoinPool pool;
+
+  // set by RENDER
+  private String eq_s;
+  private Newton newton;
+  private int fill;
+  private double minX, minY, incrementX, incrementY;
+
+  public Worker(int threads) {
+    this.threads = threads;
+    this.pool = new ForkJoinPool(threads);
+  }
+
+  // answers requests until QUIT or the coordinator hangs up
+  public void serve(InputStream input, OutputStream output) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+    try {
+      while (true) {
+        int request;
+        try {
+          request = in.readInt();
+        } catch (EOFException e) {
+          return;
+        }
+        if (request == RENDER) {
+          setup(in);
+        } else if (request == TILE) {
+          tile(in.readInt(), in.readInt(), in.readInt(), in.readInt(), out);
+          out.flush();
+        } else if (request == QUIT) {
+          return;
+        } else {
+          throw new IOException("Unknown request " + request);
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private void setup(DataInputStream in) throws IOException {
+    eq_s = in.readUTF();
+    Equation eq = Equation.parse(eq_s).simplify();
+    Newton.Derivative derivative = Newton.Derivative.valueOf(in.readUTF());
+    Method method = Method.of(in.readUTF());
+    boolean roots = in.readBoolean();
+    fill = in.readInt();
+    int maxiter = in.readInt();
+    minX = in.readDouble();
+    minY = in.readDouble();
+    incrementX = in.readDouble();
+    incrementY = in.readDouble();
+    // the width is set per tile by view
+    newton = Newton.of(eq, derivative, 1, maxiter, minX, minX + incrementX, minY, minY + incrementY);
+    if (method != Method.NEWTON) {
+      newton.useMethod(method, eq);
+    }
+    if (roots) {
+      newton.useRoots(eq);
+    }
+    if (Boolean.parseBoolean(System.getProperty("newton.vector", "true"))) {
+      newton.useVector(eq);
+    }
+  }
+
+  private void tile(int x0, int y0, int x1, int y1, DataOutputStream out) throws IOException {
+    if (newton == null) {
+      throw new IOException("Tile requested before the render was set up");
+    }
+    int width = x1 - x0, height = y1 - y0;
+    double tileX = minX + incrementX * x0, tileY = minY + incrementY * y0;
+    Renderer tile = new Renderer(newton.view(width, tileX, tileX + width * incrementX, tileY,
+        tileY + height * incrementY), width, height, tileX, tileY, incrementX, incrementY, threads);
+    tile.usePool(pool, () -> false);
+    tile.useFill(fill);
+    RenderMetrics metrics = new RenderMetrics(eq_s, width, height, newton.maxiter);
+    tile.useMetrics(metrics);
+    tile.render(null);
+    out.writeInt(tile.roots.size());
+    for (Complex root : tile.roots) {
+      out.writeDouble(root.real);
+      out.writeDouble(root.imag);
+    }
+    for (short root : tile.root) {
+      out.writeShort(root);
+    }
+    for (int iter : tile.iter) {
+      out.writeInt(iter);
+    }
+    out.writeLong(metrics.getDiverged());
+    out.writeLong(metrics.getCycles());
+  }
+
+  public static void main(String[] args) throws IOException {
+    System.setProperty("java.awt.headless", "true");
+    int threads = Integer.getInteger("newton.threads", Runtime.getRuntime().availableProcessors());
+    if (args.length == 0) {
+      // stdout carries the results, so anything printed has to go to stderr
+      OutputStream out = System.out;
+      System.setOut(System.err);
+      new Worker(threads).serve(System.in, out);
+      return;
+    }
+    try (ServerSocket server = new ServerSocket(Integer.parseInt(args[0]))) {
+      System.err.println("Worker listening on port " + server.getLocalPort());
+      while (true) {
+        Socket socket = server.accept();
+        Thread thread = new Thread(() -> {
+          try (Socket s = socket) {
+            new Worker(threads).serve(s.getInputStream(), s.getOutputStream());
+          } catch (IOException e) {
+            System.err.println("Worker connection from " + socket.getRemoteSocketAddress() + " failed: " + e);
+          }
+        }, "Newton Fractal: Worker");
+        thread.start();
+      }
+    }
+  }
+}